@@ -7,6 +7,7 @@ import org.lpc.utils.Logger;
 
 public final class Main extends Application {
     public static final String EXECUTED_FILE = "/kernel/shell.tc";
+    public static final int CORE_COUNT = 1;
 
     private final PipelineExecutor pipelineExecutor = new PipelineExecutor();
 
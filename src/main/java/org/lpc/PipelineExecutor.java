@@ -4,7 +4,7 @@ package org.lpc;
 import javafx.application.Platform;
 import org.lpc.assembler.Assembler;
 import org.lpc.compiler.TriCCompiler;
-import org.lpc.memory.Memory;
+import org.lpc.cpu.RunState;
 import org.lpc.memory.MemoryMap;
 import org.lpc.utils.FileUtils;
 import org.lpc.utils.Logger;
@@ -21,7 +21,8 @@ public class PipelineExecutor {
     );
 
     public void initializeVM() {
-        vm = new VirtualMachine();
+        vm = new VirtualMachine(Main.CORE_COUNT);
+        vm.getMemory().setSingleWriter(true);
         Logger.log("VM components initialized successfully");
     }
 
@@ -59,12 +60,7 @@ public class PipelineExecutor {
     private CompletableFuture<int[]> loadStage(int[] program) {
         return CompletableFuture.supplyAsync(() ->
             StageUtils.timeStage("Loading", () -> {
-                StageUtils.validateProgramSize(program);
-                Memory memory = vm.getMemory();
-                for (int i = 0; i < program.length; i++) {
-                    long address = MemoryMap.RAM_BASE + (long) i * Integer.BYTES;
-                    memory.writeInt(address, program[i]);
-                }
+                vm.loadProgram(program);
                 long maxInstructions = (MemoryMap.RAM_SIZE - MemoryMap.STACK_HEAP_SIZE) / 4;
                 float percentageFilled = (float) ((program.length / (double) maxInstructions) * 100);
                 Logger.log("Loaded %d out of max %d instructions to RAM", program.length, maxInstructions);
@@ -90,8 +86,9 @@ public class PipelineExecutor {
     private CompletableFuture<Void> executeStage(int[] program) {
         return CompletableFuture.runAsync(() -> {
             StageUtils.timeStage("Execution", () -> {
-                vm.getCpu().run();
-                Logger.log("\n=== Execution Complete ===");
+                RunState state = vm.getExecutionControl().run(vm.getCpu());
+                if (state == RunState.FAULT) throw vm.getCpu().getLastFault();
+                Logger.log("\n=== Execution Complete (%s) ===", state);
                 vm.getCpu().printRegisters();
                 scheduleShutdown();
                 return null;
@@ -3,27 +3,81 @@ package org.lpc;
 
 import lombok.Getter;
 import org.lpc.cpu.Cpu;
+import org.lpc.cpu.ExecutionControl;
 import org.lpc.memory.io.IODeviceManager;
+import org.lpc.memory.io.devices.InterruptController;
 import org.lpc.memory.io.devices.KeyboardDevice;
+import org.lpc.memory.io.devices.PerfCounterDevice;
+import org.lpc.memory.io.devices.SmpDevice;
 import org.lpc.memory.io.devices.TimerDevice;
+import org.lpc.memory.io.devices.WaitDevice;
 import org.lpc.memory.Memory;
 import org.lpc.memory.MemoryMap;
+import org.lpc.memory.MemoryStorage;
+import org.lpc.utils.StageUtils;
+
+import java.util.ArrayList;
+import java.util.List;
 
 @Getter
 public class VirtualMachine {
+    public static final long SMP_BASE = MemoryMap.MMIO_BASE + 0x100;
+    public static final long PIC_BASE = MemoryMap.MMIO_BASE + 0x200;
+    public static final long WAIT_BASE = MemoryMap.MMIO_BASE + 0x400;
+    public static final long PERF_BASE = MemoryMap.MMIO_BASE + 0x1000; // room for a bank per core, up to 64
+
     private final Memory memory;
-    private final Cpu cpu;
+    private final IODeviceManager ioDeviceManager;
+    private final List<Cpu> cores;
+    private final Cpu cpu; // boot core, the one the pipeline and debug views drive
+    private final ExecutionControl executionControl = new ExecutionControl();
     // MMIO devices
     private final KeyboardDevice keyboardDevice;
     private final TimerDevice timerDevice;
+    private final SmpDevice smpDevice;
+    private final WaitDevice waitDevice;
+    private final InterruptController interruptController;
+    private final PerfCounterDevice perfCounterDevice;
 
     public VirtualMachine() {
-        IODeviceManager ioDeviceManager = new IODeviceManager();
-        memory = new Memory(ioDeviceManager);
-        cpu = new Cpu(memory);
+        this(1);
+    }
+
+    public VirtualMachine(int coreCount) {
+        this(coreCount, MemoryStorage.paged(MemoryMap.TOTAL_SIZE));
+    }
+
+    /** @param storage holds guest memory, see MemoryStorage */
+    public VirtualMachine(int coreCount, MemoryStorage storage) {
+        if (coreCount < 1) throw new IllegalArgumentException("Need at least one core");
+        ioDeviceManager = new IODeviceManager();
+        memory = new Memory(ioDeviceManager, storage);
+        List<Cpu> cores = new ArrayList<>();
+        for (int i = 0; i < coreCount; i++) {
+            cores.add(new Cpu(memory, i));
+        }
+        this.cores = List.copyOf(cores);
+        cpu = this.cores.getFirst();
         // Initialize MMIO devices
-        keyboardDevice = new KeyboardDevice(MemoryMap.MMIO_BASE);
-        timerDevice = new TimerDevice(MemoryMap.MMIO_BASE + KeyboardDevice.SIZE);
-        ioDeviceManager.addDevices(keyboardDevice, timerDevice);
+        waitDevice = new WaitDevice(WAIT_BASE, this.cores);
+        this.cores.forEach(core -> core.setWaitDevice(waitDevice));
+        interruptController = new InterruptController(PIC_BASE, waitDevice::raise);
+        cpu.setInterruptController(interruptController);
+        keyboardDevice = new KeyboardDevice(MemoryMap.MMIO_BASE,
+                () -> interruptController.raise(InterruptController.LINE_KEYBOARD));
+        timerDevice = new TimerDevice(MemoryMap.MMIO_BASE + KeyboardDevice.SIZE, cpu,
+                () -> interruptController.raise(InterruptController.LINE_TIMER));
+        smpDevice = new SmpDevice(SMP_BASE, this.cores, executionControl, waitDevice::raise);
+        perfCounterDevice = new PerfCounterDevice(PERF_BASE, this.cores, memory);
+        ioDeviceManager.addDevices(keyboardDevice, timerDevice, smpDevice, interruptController, waitDevice,
+                perfCounterDevice);
+    }
+
+    /** Copies an assembled program to the start of RAM */
+    public void loadProgram(int[] program) {
+        StageUtils.validateProgramSize(program);
+        for (int i = 0; i < program.length; i++) {
+            memory.writeInt(MemoryMap.RAM_BASE + (long) i * Integer.BYTES, program[i]);
+        }
     }
 }
\ No newline at end of file
@@ -55,6 +55,11 @@ public class Assembler {
         return assembleExpanded(expanded);
     }
 
+    /** Labels resolved by the last assemble call */
+    public SymbolTable getSymbolTable() {
+        return symbolTable;
+    }
+
     private void firstPassWithPseudo(List<String> lines) {
         long currentAddress = RAM_BASE;
         for (String line : lines) {
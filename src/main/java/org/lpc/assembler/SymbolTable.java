@@ -1,5 +1,6 @@
 package org.lpc.assembler;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -26,4 +27,9 @@ public class SymbolTable {
         }
         return symbols.get(name);
     }
+
+    /** Read-only view of every label and its address */
+    public Map<String, Long> getSymbols() {
+        return Collections.unmodifiableMap(symbols);
+    }
 }
\ No newline at end of file
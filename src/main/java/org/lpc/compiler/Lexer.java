@@ -112,6 +112,7 @@ public class Lexer {
                             tokens.add("{");
                             position = skipWhitespace(pos + 1);
                             mode = Mode.ASM_BLOCK;
+                            continue; // position already at the first asm line
                         }
                     }
                 }
@@ -1,89 +1,926 @@
 package org.lpc.cpu;
 
+import lombok.AccessLevel;
 import lombok.Getter;
+import lombok.Setter;
+import org.lpc.cpu.jit.BlockCache;
+import org.lpc.cpu.jit.BlockFault;
+import org.lpc.cpu.jit.TranslatedBlock;
+import org.lpc.cpu.profile.Profiler;
 import org.lpc.memory.Memory;
+import org.lpc.memory.MemoryMap;
+import org.lpc.memory.SharedImage;
+import org.lpc.memory.WatchpointHit;
+import org.lpc.memory.io.devices.InterruptController;
+import org.lpc.memory.io.devices.WaitDevice;
 import org.lpc.rom.ROMData;
 
+import javax.annotation.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
 import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
 
 import static org.lpc.memory.MemoryMap.ROM_SIZE;
 
 @Getter
 public class Cpu {
     public static final int REGISTER_COUNT = 32;
+    private static final int MAX_NOP_COUNT = 16; // consecutive NOPs treated as end of program
+    private static final long MAX_WAIT_MS = TimeUnit.DAYS.toMillis(365); // longer WFI timeouts mean no limit
+    private static final int SP = RegisterInfo.REG_ALIAS.get("sp");
+    private static final int GP = RegisterInfo.REG_ALIAS.get("gp");
+    private static final int HP = RegisterInfo.REG_ALIAS.get("hp");
+    // One copy of the ROM's pages for every core's memory, see SharedImage
+    private static final SharedImage ROM_IMAGE = SharedImage.of(ROMData.ROM);
     private final long[] registers = new long[REGISTER_COUNT];
     private long programCounter = 0;
     private boolean isHalted = false;
+    private long instructionsRetired = 0;
+    // Retired loads and stores (atomics count as both) and jumps that left the fall-through path
+    private long loads = 0;
+    private long stores = 0;
+    private long takenBranches = 0;
+    private int nopCount = 0;
+    @Nullable
+    private RuntimeException lastFault;
+    // Debugger stops: the PC run last stopped at, resumed without stopping there again, and why
+    private long stoppedAt = -1;
+    @Nullable
+    private WatchpointHit lastWatchpointHit;
+    // Set by WFI until the host wakes the core, see requestWait
+    private boolean waiting = false;
+    private boolean waitTimed = false;
+    private long waitDeadline; // System.nanoTime() when a timed wait ends
+    private long seenEvents;   // event count when this core last waited
+    // The thread inside run, see isRunningOn
+    @Nullable
+    @Getter(AccessLevel.NONE)
+    private volatile Thread runningThread;
+    private final long[] csrs = new long[InstructionSet.CSR_COUNT];
+    @Getter(AccessLevel.NONE)
+    private final Mmu mmu;
+    // Set by a CSRW that turns paging on or off, so the run loop switches between paged and plain execution
+    @Getter(AccessLevel.NONE)
+    private boolean pagingSwitched;
+    // See setAlarm
+    private long alarmAt = Long.MAX_VALUE;
+    @Nullable
+    private LongConsumer alarm;
 
+    private final int coreId;
     private final Memory memory;
+    private final InstructionCache instructionCache;
+    private final BlockCache blockCache;
+    @Setter
+    private ExecutionMode executionMode = ExecutionMode.INTERPRETER;
+    /** While set, every instruction is interpreted unfused and recorded, whatever the execution mode; not while paging */
+    @Nullable
+    @Setter
+    private Profiler profiler;
+    /** While set, every instruction is recorded into it for post-mortems and stepBack, see setTrail */
+    @Nullable
+    private ExecutionTrail trail;
+    // Blocks compiled to record into the trail, made by the first setTrail
+    @Nullable
+    @Getter(AccessLevel.NONE)
+    private BlockCache trailedBlocks;
+    /** Event source for WFI; without one WFI does nothing */
+    @Nullable
+    @Setter
+    private WaitDevice waitDevice;
+    /** Source of interrupts, only the boot core has one */
+    @Nullable
+    @Setter
+    private InterruptController interruptController;
+    /** Sees, and may replace, the lines the core takes, e.g. to record or replay them */
+    @Nullable
+    @Setter
+    private InterruptHook interruptHook;
 
     public Cpu(Memory memory) {
+        this(memory, 0);
+    }
+
+    /**
+     * Core 0 boots from ROM; the other cores share its memory and
+     * stay halted until started (see SmpDevice).
+     */
+    public Cpu(Memory memory, int coreId) {
+        this.coreId = coreId;
         this.memory = memory;
-        initROM();
+        this.instructionCache = new InstructionCache(memory);
+        this.blockCache = new BlockCache(memory, instructionCache, MAX_NOP_COUNT);
+        this.mmu = new Mmu(memory, csrs);
+        if (coreId == 0) {
+            initROM();
+        } else {
+            isHalted = true;
+        }
+    }
+
+    /**
+     * Resets the core to start at pc with the given stack; only while it isn't running.
+     * gp and hp are taken from the boot core so the new core sees the same globals.
+     */
+    public void start(long pc, long stackPointer, Cpu bootCore) {
+        Arrays.fill(registers, 0);
+        Arrays.fill(csrs, 0);
+        mmu.flush();
+        registers[SP] = stackPointer;
+        registers[GP] = bootCore.registers[GP];
+        registers[HP] = bootCore.registers[HP];
+        programCounter = pc;
+        isHalted = false;
+        nopCount = 0;
+        lastFault = null;
+        stoppedAt = -1;
+        if (trail != null) trail.clear();
     }
 
-    public void run() {
-        int nopCount = 0, maxNopCount = 16;
+    /** Writes registers, CSRs, PC, run flags and counters for a VM snapshot; only while the core isn't running */
+    public void saveState(DataOutput out) throws IOException {
+        for (long register : registers) out.writeLong(register);
+        for (long csr : csrs) out.writeLong(csr);
+        out.writeLong(programCounter);
+        out.writeBoolean(isHalted);
+        out.writeInt(nopCount);
+        out.writeLong(instructionsRetired);
+        out.writeLong(loads);
+        out.writeLong(stores);
+        out.writeLong(takenBranches);
+    }
+
+    public void restoreState(DataInput in) throws IOException {
+        for (int i = 0; i < REGISTER_COUNT; i++) registers[i] = in.readLong();
+        for (int i = 0; i < csrs.length; i++) csrs[i] = in.readLong();
+        mmu.flush();
+        programCounter = in.readLong();
+        isHalted = in.readBoolean();
+        nopCount = in.readInt();
+        instructionsRetired = in.readLong();
+        loads = in.readLong();
+        stores = in.readLong();
+        takenBranches = in.readLong();
+        lastFault = null;
+        stoppedAt = -1;
+        waiting = false;
+        if (trail != null) trail.clear();
+    }
+
+    /** Runs to completion, rethrowing any fault */
+    public RunState run() {
+        RunState state = run(Long.MAX_VALUE);
+        if (state == RunState.FAULT) throw lastFault;
+        return state;
+    }
 
-        while (!isHalted && nopCount < maxNopCount) {
-            int raw = memory.readInt(programCounter);
-            programCounter += 4;
+    /**
+     * Runs until the program stops or roughly maxInstructions have retired.
+     * The budget is checked between blocks and fused sequences, so a slice can
+     * overshoot it by at most one of them. Calling run again resumes; after a
+     * FAULT the PC is just past the faulting instruction. After WAITING_FOR_IO
+     * the host parks in awaitEvent first, though resuming early is allowed:
+     * guests treat it as a spurious wakeup. After BREAKPOINT the PC is at the
+     * instruction that stopped, a breakpoint or one about to access a watched
+     * range (see lastWatchpointHit); resuming executes it without stopping.
+     */
+    public RunState run(long maxInstructions) {
+        long limit = maxInstructions > Long.MAX_VALUE - instructionsRetired
+                ? Long.MAX_VALUE : instructionsRetired + maxInstructions;
+        lastFault = null;
+        lastWatchpointHit = null;
+        waiting = false;
+        long retiredBefore = instructionsRetired;
+        long recordedBefore = 0;
+        boolean stopped = false;
+        if (trail != null) {
+            trail.resume();
+            recordedBefore = trail.recorded();
+        }
+        memory.setWatchedThread(true);
+        memory.claimWriter();
+        runningThread = Thread.currentThread();
+        try {
+            if (programCounter == stoppedAt) {
+                stepOverStop();
+            }
+            do {
+                pagingSwitched = false;
+                if (mmu.isEnabled()) {
+                    runPaged(limit);
+                } else if (profiler != null) {
+                    runProfiled(limit);
+                } else if (trail != null && executionMode != ExecutionMode.JIT) {
+                    runTrailed(limit);
+                } else if (executionMode == ExecutionMode.INTERPRETER) {
+                    runInterpreter(limit);
+                } else {
+                    runTranslated(limit);
+                }
+            } while (pagingSwitched);
+        } catch (BreakpointStop | WatchpointHit stop) {
+            // Both leave the PC just past the instruction, which hasn't had any effect
+            programCounter -= 4;
+            stoppedAt = programCounter;
+            lastWatchpointHit = stop instanceof WatchpointHit hit ? hit : null;
+            stopped = true;
+            return RunState.BREAKPOINT;
+        } catch (RuntimeException e) {
+            lastFault = e;
+            return RunState.FAULT;
+        } finally {
+            runningThread = null;
+            memory.releaseWriter();
+            memory.setWatchedThread(false);
+            if (trail != null) settleTrail(recordedBefore, retiredBefore, stopped);
+        }
+        if (isFinished()) return RunState.HALTED;
+        return waiting ? RunState.WAITING_FOR_IO : RunState.BUDGET_EXHAUSTED;
+    }
+
+    /** Whether the calling thread is inside this core's run, so its stores are this core's */
+    public boolean isRunningOn(Thread thread) {
+        return runningThread == thread;
+    }
+
+    /**
+     * Makes the core wait for an event or timeoutMs (0 or negative = no limit);
+     * WFI and the WaitDevice's WAIT registers end up here. The core stops at
+     * the end of its current block, and not at all if an event was raised
+     * since it last waited. Only from the thread running the core.
+     */
+    public void requestWait(long timeoutMs) {
+        if (waitDevice == null) return;
+        long events = waitDevice.getEvents();
+        if (alarm != null) { // nothing else runs until the alarm, so skip straight to it
+            fireAlarm(Math.max(alarmAt - instructionsRetired, 0));
+            events = waitDevice.getEvents();
+        }
+        if (events != seenEvents) {
+            seenEvents = events;
+            return;
+        }
+        waiting = true;
+        waitTimed = timeoutMs > 0 && timeoutMs <= MAX_WAIT_MS;
+        waitDeadline = waitTimed ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs) : 0;
+    }
 
-            int opcode = InstructionSet.getOpcode(raw);
-            int dest = InstructionSet.getDest(raw);
-            int src1 = InstructionSet.getSrc(raw);
-            int src2 = InstructionSet.getSrc2(raw);
-            int imm = InstructionSet.getImmediate(raw);
+    /**
+     * Calls alarm once instructionsRetired reaches instructionCount, at the
+     * next block boundary, passing 0. A WFI while it's armed fires it at once
+     * instead, passing the instructions the core would have retired until
+     * then, so virtual time derived from instructions can skip the idle time.
+     * One alarm at a time, a null alarm cancels it; only from the thread
+     * running the core or while it isn't running.
+     */
+    public void setAlarm(long instructionCount, @Nullable LongConsumer alarm) {
+        this.alarmAt = alarm == null ? Long.MAX_VALUE : instructionCount;
+        this.alarm = alarm;
+    }
+
+    private void fireAlarm(long skippedInstructions) {
+        LongConsumer fired = alarm;
+        setAlarm(Long.MAX_VALUE, null);
+        fired.accept(skippedInstructions);
+    }
+
+    /**
+     * Parks the calling thread while the core waits, at most maxNanos.
+     * Returns true once the wait is over, false if maxNanos ran out first.
+     */
+    public boolean awaitEvent(long maxNanos) throws InterruptedException {
+        if (!waiting || waitDevice == null) return true;
+        long remaining = waitTimed ? Math.min(maxNanos, waitDeadline - System.nanoTime()) : maxNanos;
+        long events = waitDevice.awaitEvent(seenEvents, remaining);
+        if (events != seenEvents) {
+            seenEvents = events;
+            waiting = false;
+        } else if (waitTimed && System.nanoTime() - waitDeadline >= 0) {
+            waiting = false;
+        }
+        return !waiting;
+    }
+
+    /*—— Debugging —————————*/
+
+    /**
+     * Stops the core before it executes the instruction at pc. Costs nothing
+     * elsewhere: the instruction is replaced in the decoded form only, see
+     * InstructionCache. Set breakpoints while the core is paused for them to
+     * apply at once, otherwise they may take until its next page decode.
+     */
+    public void addBreakpoint(long pc) {
+        instructionCache.addBreakpoint(pc);
+        blockCache.invalidatePage(MemoryMap.pageOf(pc));
+        if (trailedBlocks != null) trailedBlocks.invalidatePage(MemoryMap.pageOf(pc));
+    }
+
+    public void removeBreakpoint(long pc) {
+        instructionCache.removeBreakpoint(pc);
+        blockCache.invalidatePage(MemoryMap.pageOf(pc));
+        if (trailedBlocks != null) trailedBlocks.invalidatePage(MemoryMap.pageOf(pc));
+    }
+
+    public Set<Long> getBreakpoints() {
+        return instructionCache.getBreakpoints();
+    }
+
+    /**
+     * Attaches a trail, or detaches it with null; only while the core isn't
+     * running. While one is attached every instruction is recorded into it
+     * as it executes: the interpreter runs unfused and JIT mode runs blocks
+     * compiled to record as well, see ExecutionTrail. DIFFERENTIAL mode is
+     * interpreted. Paged code isn't recorded: running with paging on clears
+     * the trail.
+     * .
+     * Recording isn't free. On a 74M-instruction compute benchmark JIT mode
+     * ran about 1.5-2x slower with a 4K-entry trail and about 3x slower with
+     * a 1M-entry one, whose arrays no longer fit in cache; the interpreter,
+     * unfused, about 4-6x. Keep the trail as short as the crash needs.
+     */
+    public void setTrail(@Nullable ExecutionTrail trail) {
+        this.trail = trail;
+        if (trail == null) return;
+        trail.clear();
+        if (trailedBlocks == null) trailedBlocks = new BlockCache(memory, instructionCache, MAX_NOP_COUNT, true);
+    }
+
+    /**
+     * Undoes the newest instruction of the trail: restores the register and
+     * memory it overwrote, the PC and the counters. Returns false once the
+     * trail is empty or without one. Only while the core isn't running;
+     * what the trail doesn't record isn't rewound, see ExecutionTrail.
+     */
+    public boolean stepBack() {
+        if (trail == null || trail.size() == 0) return false;
+        ExecutionTrail.Entry entry = trail.removeNewest();
+        if (entry.oldBlock() != null) {
+            memory.writeBytes(entry.storeAddress(), entry.oldBlock(), 0, entry.oldBlock().length);
+        } else if (entry.storeSize() != ExecutionTrail.NONE) {
+            storeSized(entry.storeAddress(), entry.storeSize(), entry.oldMemory());
+        }
+        if (entry.register() != ExecutionTrail.NONE) {
+            registers[entry.register()] = entry.oldRegister();
+        }
+        if (instructionsRetired > entry.retiredBefore()) { // not for one that faulted
+            uncount(InstructionCache.decode(entry.instruction()), entry.pc());
+        }
+        instructionsRetired = entry.retiredBefore();
+        programCounter = entry.pc();
+        isHalted = false;
+        waiting = false;
+        nopCount = 0;
+        stoppedAt = -1;
+        lastFault = null;
+        lastWatchpointHit = null;
+        return true;
+    }
 
-            if (opcode == InstructionSet.OP_NOP) {
-                nopCount++;
+    // Takes a retired instruction back out of the counters, with the registers as they were before it
+    private void uncount(long decoded, long pc) {
+        int op = InstructionCache.op(decoded);
+        boolean atomic = op == MicroOp.CAS || op == MicroOp.FADD;
+        if (MicroOp.isLoad(op) || atomic || op == MicroOp.MEMCPY) loads--;
+        if (MicroOp.isStore(op) || atomic || op == MicroOp.MEMCPY || op == MicroOp.MEMSET) stores--;
+        if (op == MicroOp.MEMCMP) loads -= 2;
+        if (!MicroOp.isJump(op)) return;
+        long condition = registers[InstructionCache.src(decoded)];
+        boolean jumped = switch (op) {
+            case MicroOp.JZ -> condition == 0;
+            case MicroOp.JNZ -> condition != 0;
+            case MicroOp.JPP -> condition > 0;
+            case MicroOp.JPN -> condition < 0;
+            default -> true;
+        };
+        if (jumped && registers[InstructionCache.dest(decoded)] != pc + 4) takenBranches--;
+    }
+
+    // Records the plain instruction at the PC, with the register and memory it's about to overwrite
+    private void recordTrail(long decoded) {
+        int register = InstructionCache.writtenRegister(decoded);
+        trail.record(programCounter, decoded, register == ExecutionTrail.NONE ? 0 : registers[register]);
+
+        int op = InstructionCache.op(decoded);
+        if (op == MicroOp.MEMCPY || op == MicroOp.MEMSET) {
+            trail.recordBlock(memory, registers[InstructionCache.dest(decoded)],
+                    registers[InstructionCache.src2(decoded)]);
+            return;
+        }
+        boolean atomic = op == MicroOp.CAS || op == MicroOp.FADD;
+        int size = atomic ? Long.BYTES : storeSize(op);
+        if (size == 0) return;
+        trail.recordStore(memory, registers[atomic ? InstructionCache.src(decoded) : InstructionCache.dest(decoded)], size);
+    }
+
+    // Ends a run for the trail: a recorded instruction that didn't retire either faulted or stopped the core
+    private void settleTrail(long recordedBefore, long retiredBefore, boolean stopped) {
+        boolean unretired = trail.recorded() - recordedBefore > instructionsRetired - retiredBefore;
+        if (unretired && stopped) {
+            if (trail.hasNewest()) trail.dropNewest(); // never executed, see run
+            unretired = false;
+        }
+        trail.settle(instructionsRetired, unretired);
+    }
+
+    /** Executes the instruction the core stopped at, skipping its breakpoint and watchpoints */
+    private void stepOverStop() {
+        stoppedAt = -1;
+        memory.setWatchedThread(false);
+        try {
+            if (mmu.isEnabled()) {
+                try {
+                    int op = stepPaged(true);
+                    nopCount = op == MicroOp.NOP ? nopCount + 1 : 0;
+                } catch (Trap trap) {
+                    takeTrap(trap);
+                }
+                return;
+            }
+            long decoded = instructionCache.fetchPlain(programCounter);
+            if (InstructionCache.op(decoded) == MicroOp.BREAK) {
+                decoded = InstructionCache.decode(InstructionCache.imm(decoded));
+            }
+            if (trail != null) recordTrail(decoded);
+            int op = execute(decoded);
+            nopCount = op == MicroOp.NOP ? nopCount + 1 : 0;
+        } finally {
+            memory.setWatchedThread(true);
+        }
+    }
+
+    // Thrown by BREAK; preallocated, a stop isn't an error
+    private static final class BreakpointStop extends RuntimeException {
+        static final BreakpointStop INSTANCE = new BreakpointStop();
+
+        private BreakpointStop() {
+            super("Breakpoint", null, false, false);
+        }
+    }
+
+    /** Whether addresses are virtual, see the Paging section of InstructionSet */
+    public boolean isPaging() {
+        return mmu.isEnabled();
+    }
+
+    /** Halted, or stopped by a run of NOPs */
+    public boolean isFinished() {
+        return isHalted || nopCount >= MAX_NOP_COUNT;
+    }
+
+    private void runInterpreter(long limit) {
+        pollEvents();
+        while (!isFinished() && !waiting && !pagingSwitched && instructionsRetired < limit) {
+            int op = step();
+            nopCount = op == MicroOp.NOP ? nopCount + 1 : 0;
+            if (MicroOp.endsBlock(op)) pollEvents();
+        }
+    }
+
+    private void runProfiled(long limit) {
+        pollEvents();
+        while (!isFinished() && !waiting && !pagingSwitched && instructionsRetired < limit) {
+            long decoded = instructionCache.fetchPlain(programCounter);
+            if (profiler != null) profiler.record(programCounter, decoded, registers);
+            if (trail != null) recordTrail(decoded);
+            int op = execute(decoded);
+            nopCount = op == MicroOp.NOP ? nopCount + 1 : 0;
+            if (MicroOp.endsBlock(op)) pollEvents();
+        }
+    }
+
+    // Like runInterpreter, unfused so each instruction gets its own entry
+    private void runTrailed(long limit) {
+        pollEvents();
+        while (!isFinished() && !waiting && !pagingSwitched && instructionsRetired < limit) {
+            int op = stepTrailed();
+            nopCount = op == MicroOp.NOP ? nopCount + 1 : 0;
+            if (MicroOp.endsBlock(op)) pollEvents();
+        }
+    }
+
+    private void runTranslated(long limit) {
+        BlockCache blocks = trail != null ? trailedBlocks : blockCache;
+        while (!isFinished() && !waiting && !pagingSwitched && instructionsRetired < limit) {
+            pollEvents();
+            TranslatedBlock block = blocks.lookup(programCounter);
+            if (block == null || nopCount + block.leadingNops() >= MAX_NOP_COUNT) {
+                interpretBlock();
+                continue;
+            }
+
+            if (executionMode == ExecutionMode.DIFFERENTIAL) {
+                verifyBlock(block);
             } else {
-                nopCount = 0;
+                executeBlock(block);
             }
+            nopCount = block.isAllNops() ? nopCount + block.length() : block.trailingNops();
+        }
+    }
 
-            execute(opcode, dest, src1, src2, imm);
-        }
-    }
-
-    private void execute(int opcode, int dest, int src1, int src2, int imm) {
-        switch (opcode) {
-            case InstructionSet.OP_NOP -> {}
-            case InstructionSet.OP_HLT -> isHalted = true;
-            case InstructionSet.OP_MOV -> set(dest, get(src1));
-            case InstructionSet.OP_NOT -> set(dest, ~get(src1));
-            case InstructionSet.OP_NEG -> set(dest, -get(src1));
-            case InstructionSet.OP_ADD -> set(dest, get(src1) + get(src2));
-            case InstructionSet.OP_SUB -> set(dest, get(src1) - get(src2));
-            case InstructionSet.OP_MUL -> set(dest, get(src1) * get(src2));
-            case InstructionSet.OP_DIV -> set(dest, get(src1) / get(src2));
-            case InstructionSet.OP_AND -> set(dest, get(src1) & get(src2));
-            case InstructionSet.OP_OR  -> set(dest, get(src1) | get(src2));
-            case InstructionSet.OP_XOR -> set(dest, get(src1) ^ get(src2));
-            case InstructionSet.OP_SHL -> set(dest, get(src1) << get(src2));
-            case InstructionSet.OP_SHR -> set(dest, get(src1) >>> get(src2));
-            case InstructionSet.OP_SAR -> set(dest, get(src1) >> get(src2));
-            case InstructionSet.OP_MOD -> set(dest, get(src1) % get(src2));
-            case InstructionSet.OP_JMP -> programCounter = get(dest);
-            case InstructionSet.OP_JZ  -> { if (get(src1) == 0) programCounter = get(dest); }
-            case InstructionSet.OP_JNZ -> { if (get(src1) != 0) programCounter = get(dest); }
-            case InstructionSet.OP_JPP -> { if (get(src1) >  0) programCounter = get(dest); }
-            case InstructionSet.OP_JPN -> { if (get(src1) <  0) programCounter = get(dest); }
-            case InstructionSet.OP_JAL -> { set(src1, programCounter); programCounter = get(dest);}
-            case InstructionSet.OP_LD  -> set(dest, memory.readLong(get(src1)));
-            case InstructionSet.OP_ST  -> memory.writeLong(get(dest), get(src1));
-            case InstructionSet.OP_LB  -> set(dest, memory.readByte(get(src1)));
-            case InstructionSet.OP_SB  -> memory.writeByte(get(dest), (byte) get(src1));
-            case InstructionSet.OP_LI  -> set(dest, memory.readInt(get(src1)));
-            case InstructionSet.OP_SI  -> memory.writeInt(get(dest), (int) get(src1));
-            case InstructionSet.OP_LDI -> set(dest, imm);
-            default -> throw new IllegalArgumentException("Unknown opcode: " + opcode);
+    /*—— Paging —————————*/
+    // Always interpreted and unfused: the decoded caches and compiled blocks are keyed by physical PC
+
+    private void runPaged(long limit) {
+        if (trail != null) trail.clear(); // paged code isn't recorded, see setTrail
+        pollEvents();
+        while (!isFinished() && !waiting && !pagingSwitched && instructionsRetired < limit) {
+            int op;
+            try {
+                op = stepPaged(false);
+            } catch (Trap trap) {
+                takeTrap(trap);
+                continue;
+            }
+            nopCount = op == MicroOp.NOP ? nopCount + 1 : 0;
+            if (MicroOp.endsBlock(op)) pollEvents();
         }
     }
 
+    /** Executes the instruction at the virtual PC; one that traps has no effect and leaves the PC on it */
+    private int stepPaged(boolean overStop) {
+        long pc = programCounter;
+        boolean user = (csrs[InstructionSet.CSR_STATUS] & InstructionSet.STATUS_U) != 0;
+        try {
+            long decoded = instructionCache.fetchPlain(mmu.translate(pc, InstructionSet.PTE_EXEC, user));
+            if (overStop && InstructionCache.op(decoded) == MicroOp.BREAK) {
+                decoded = InstructionCache.decode(InstructionCache.imm(decoded));
+            }
+            int op = InstructionCache.op(decoded);
+            boolean accessesMemory = (op >= MicroOp.LD && op <= MicroOp.SI)
+                    || op == MicroOp.CAS || op == MicroOp.FADD || MicroOp.isBlock(op);
+            if (accessesMemory) return executeMapped(decoded, user);
+            if (user && MicroOp.isPrivileged(op)) throw new Trap(InstructionSet.CAUSE_PRIVILEGED, pc);
+            return execute(decoded);
+        } catch (Trap trap) {
+            programCounter = pc;
+            throw trap;
+        }
+    }
+
+    // Like execute for the operations that access memory, at virtual addresses
+    private int executeMapped(long decoded, boolean user) {
+        programCounter += 4;
+
+        int op = InstructionCache.op(decoded);
+        int dest = InstructionCache.dest(decoded);
+        int src1 = InstructionCache.src(decoded);
+        int src2 = InstructionCache.src2(decoded);
+        switch (op) {
+            case MicroOp.LD -> { set(dest, mmu.load(get(src1), Long.BYTES, user)); loads++; }
+            case MicroOp.ST -> { mmu.store(get(dest), Long.BYTES, get(src1), user); stores++; }
+            case MicroOp.LB -> { set(dest, mmu.load(get(src1), Byte.BYTES, user)); loads++; }
+            case MicroOp.SB -> { mmu.store(get(dest), Byte.BYTES, get(src1), user); stores++; }
+            case MicroOp.LI -> { set(dest, mmu.load(get(src1), Integer.BYTES, user)); loads++; }
+            case MicroOp.SI -> { mmu.store(get(dest), Integer.BYTES, get(src1), user); stores++; }
+            case MicroOp.CAS -> {
+                set(dest, memory.compareAndSwapLong(mmu.atomic(get(src1), user), get(dest), get(src2)));
+                loads++;
+                stores++;
+            }
+            case MicroOp.FADD -> {
+                set(dest, memory.getAndAddLong(mmu.atomic(get(src1), user), get(src2)));
+                loads++;
+                stores++;
+            }
+            case MicroOp.MEMCPY -> { mmu.copy(get(dest), get(src1), get(src2), user); loads++; stores++; }
+            case MicroOp.MEMSET -> { mmu.fill(get(dest), get(src2), (byte) get(src1), user); stores++; }
+            default -> { set(dest, mmu.compare(get(dest), get(src1), get(src2), user)); loads += 2; } // MicroOp.MEMCMP
+        }
+        instructionsRetired++;
+        return op;
+    }
+
+    /**
+     * Fires a due alarm, then takes an asserted interrupt if interrupts are enabled.
+     * Only called at block boundaries, so compiled blocks and the hot loops never check.
+     */
+    private void pollEvents() {
+        if (instructionsRetired >= alarmAt) fireAlarm(0);
+        if ((csrs[InstructionSet.CSR_STATUS] & InstructionSet.STATUS_IE) == 0 || interruptController == null) return;
+        if (isFinished()) return;
+        int line = interruptController.activeLine();
+        if (interruptHook != null) line = interruptHook.onPoll(instructionsRetired, line);
+        if (line < 0) return;
+        takeInterrupt(line);
+    }
+
+    private void takeInterrupt(int line) {
+        enterHandler(line);
+    }
+
+    // Resumes at the instruction that trapped once the handler returns; without a handler the core faults
+    private void takeTrap(Trap trap) {
+        if (csrs[InstructionSet.CSR_IVEC] == 0) {
+            programCounter += 4; // like any fault, see run
+            throw trap;
+        }
+        enterHandler(trap.cause());
+        csrs[InstructionSet.CSR_BADADDR] = trap.address();
+    }
+
+    private void enterHandler(int cause) {
+        long status = csrs[InstructionSet.CSR_STATUS];
+        csrs[InstructionSet.CSR_EPC] = programCounter;
+        csrs[InstructionSet.CSR_CAUSE] = cause;
+        csrs[InstructionSet.CSR_STATUS] = ((status & InstructionSet.STATUS_IE) != 0 ? InstructionSet.STATUS_PIE : 0)
+                | ((status & InstructionSet.STATUS_U) != 0 ? InstructionSet.STATUS_PU : 0);
+        programCounter = csrs[InstructionSet.CSR_IVEC];
+        nopCount = 0;
+    }
+
+    private void returnFromInterrupt() {
+        long status = csrs[InstructionSet.CSR_STATUS];
+        csrs[InstructionSet.CSR_STATUS] = ((status & InstructionSet.STATUS_PIE) != 0 ? InstructionSet.STATUS_IE : 0)
+                | ((status & InstructionSet.STATUS_PU) != 0 ? InstructionSet.STATUS_U : 0);
+        programCounter = csrs[InstructionSet.CSR_EPC];
+    }
+
+    private int csr(int index) {
+        if (index < 0 || index >= csrs.length) throw new IllegalArgumentException("Invalid CSR: " + index);
+        return index;
+    }
+
+    private void writeCsr(int index, long value) {
+        if (index == InstructionSet.CSR_PTBR) {
+            if ((csrs[index] == 0) != (value == 0)) pagingSwitched = true;
+            mmu.flush();
+        }
+        csrs[index] = value;
+    }
+
+    /**
+     * Interprets up to the end of the current basic block, so block lookups
+     * only happen at block entries.
+     */
+    private void interpretBlock() {
+        int page = MemoryMap.pageOf(programCounter);
+        int op;
+        do {
+            op = trail != null ? stepTrailed() : step();
+            nopCount = op == MicroOp.NOP ? nopCount + 1 : 0;
+        } while (!isFinished() && !waiting && !pagingSwitched && !MicroOp.endsBlock(op)
+                && MemoryMap.pageOf(programCounter) == page);
+    }
+
+    private void executeBlock(TranslatedBlock block) {
+        try {
+            programCounter = trail != null
+                    ? block.code().execute(registers, memory, trail) : block.code().execute(registers, memory);
+        } catch (BlockFault fault) {
+            if (trail != null) trail.commit(block.startPc(), block.instructions(), fault.getInstructionIndex() + 1);
+            // Same PC the interpreter leaves behind: just past the faulting instruction
+            programCounter = block.startPc() + 4L * (fault.getInstructionIndex() + 1);
+            instructionsRetired += fault.getInstructionIndex();
+            countMemoryOps(block.startPc(), fault.getInstructionIndex());
+            throw fault.unwrap();
+        }
+        if (trail != null) trail.commit(block.startPc(), block.instructions(), block.length());
+        instructionsRetired += block.length();
+        loads += block.loads();
+        stores += block.stores();
+        if (block.endsWithJump() && programCounter != block.fallThroughPc()) takenBranches++;
+        if (block.endsWithHalt()) {
+            isHalted = true;
+        }
+    }
+
+    /** Counts the loads and stores among the count plain instructions at pc, for a block that faulted part way */
+    private void countMemoryOps(long pc, int count) {
+        for (int i = 0; i < count; i++) {
+            int op = InstructionCache.op(instructionCache.fetchPlain(pc + 4L * i));
+            if (MicroOp.isLoad(op)) loads++;
+            if (MicroOp.isStore(op)) stores++;
+        }
+    }
+
+    /**
+     * Differential mode: runs the block through the interpreter, rolls back
+     * registers and stored memory, runs the compiled block and compares.
+     * Blocks that touch MMIO are only interpreted, since device accesses can't be replayed.
+     */
+    private void verifyBlock(TranslatedBlock block) {
+        long startPc = programCounter;
+        long[] countersBefore = counters();
+        long[] before = registers.clone();
+        long[] storeAddresses = new long[block.length()];
+        int[] storeSizes = new int[block.length()];
+        long[] oldValues = new long[block.length()];
+        int storeCount = 0;
+        boolean comparable = true;
+
+        for (int i = 0; i < block.length(); i++) {
+            long decoded = instructionCache.fetchPlain(programCounter);
+            int op = InstructionCache.op(decoded);
+            int size = storeSize(op);
+            long address = size > 0 ? get(InstructionCache.dest(decoded))
+                    : MicroOp.isLoad(op) ? get(InstructionCache.src(decoded)) : -1;
+
+            if (address != -1 && (MemoryMap.isMmioAddress(address) || !MemoryMap.isValidAddress(address))) {
+                comparable = false;
+            } else if (size > 0) {
+                storeAddresses[storeCount] = address;
+                storeSizes[storeCount] = size;
+                oldValues[storeCount++] = memory.peek(address, size);
+            }
+            stepPlain();
+        }
+        if (!comparable) return;
+
+        long[] expectedRegisters = registers.clone();
+        long expectedPc = programCounter;
+        long[] expectedCounters = counters();
+        long[] expectedValues = new long[storeCount];
+        for (int i = 0; i < storeCount; i++) {
+            expectedValues[i] = memory.peek(storeAddresses[i], storeSizes[i]);
+        }
+
+        for (int i = storeCount - 1; i >= 0; i--) {
+            writeSized(storeAddresses[i], storeSizes[i], oldValues[i]);
+        }
+        System.arraycopy(before, 0, registers, 0, REGISTER_COUNT);
+        programCounter = startPc;
+        setCounters(countersBefore);
+        isHalted = false;
+        executeBlock(block);
+
+        if (programCounter != expectedPc) {
+            throw jitMismatch(startPc, String.format("PC expected 0x%X, got 0x%X", expectedPc, programCounter));
+        }
+        if (!Arrays.equals(counters(), expectedCounters)) {
+            throw jitMismatch(startPc, String.format("counters (retired, loads, stores, taken) expected %s, got %s",
+                    Arrays.toString(expectedCounters), Arrays.toString(counters())));
+        }
+        for (int i = 0; i < REGISTER_COUNT; i++) {
+            if (registers[i] != expectedRegisters[i]) {
+                throw jitMismatch(startPc, String.format("%s expected 0x%X, got 0x%X",
+                        RegisterInfo.REG_NAMES[i], expectedRegisters[i], registers[i]));
+            }
+        }
+        for (int i = 0; i < storeCount; i++) {
+            long actual = memory.peek(storeAddresses[i], storeSizes[i]);
+            if (actual != expectedValues[i]) {
+                throw jitMismatch(startPc, String.format("memory at 0x%X expected 0x%X, got 0x%X",
+                        storeAddresses[i], expectedValues[i], actual));
+            }
+        }
+    }
+
+    private long[] counters() {
+        return new long[]{instructionsRetired, loads, stores, takenBranches};
+    }
+
+    private void setCounters(long[] counters) {
+        instructionsRetired = counters[0];
+        loads = counters[1];
+        stores = counters[2];
+        takenBranches = counters[3];
+    }
+
+    private static IllegalStateException jitMismatch(long blockPc, String detail) {
+        return new IllegalStateException(String.format("JIT mismatch in block at 0x%X: %s", blockPc, detail));
+    }
+
+    private static int storeSize(int op) {
+        return switch (op) {
+            case MicroOp.ST -> Long.BYTES;
+            case MicroOp.SI -> Integer.BYTES;
+            case MicroOp.SB -> Byte.BYTES;
+            default -> 0;
+        };
+    }
+
+    // Differential bookkeeping rather than a guest access, so never watched
+    private void writeSized(long address, int size, long value) {
+        memory.setWatchedThread(false);
+        try {
+            storeSized(address, size, value);
+        } finally {
+            memory.setWatchedThread(true);
+        }
+    }
+
+    private void storeSized(long address, int size, long value) {
+        switch (size) {
+            case Long.BYTES -> memory.writeLong(address, value);
+            case Integer.BYTES -> memory.writeInt(address, (int) value);
+            default -> memory.writeByte(address, (byte) value);
+        }
+    }
+
+    private int step() {
+        return execute(instructionCache.fetch(programCounter));
+    }
+
+    /** Executes exactly one instruction, ignoring fusion */
+    private int stepPlain() {
+        return execute(instructionCache.fetchPlain(programCounter));
+    }
+
+    private int stepTrailed() {
+        long decoded = instructionCache.fetchPlain(programCounter);
+        recordTrail(decoded);
+        return execute(decoded);
+    }
+
+    private int execute(long decoded) {
+        programCounter += 4;
+
+        int op = InstructionCache.op(decoded);
+        execute(op,
+                InstructionCache.dest(decoded),
+                InstructionCache.src(decoded),
+                InstructionCache.src2(decoded),
+                InstructionCache.imm(decoded));
+        instructionsRetired++;
+        return op;
+    }
+
+    private void execute(int op, int dest, int src1, int src2, int imm) {
+        switch (op) {
+            case MicroOp.NOP -> {}
+            case MicroOp.HLT -> isHalted = true;
+            case MicroOp.MOV -> set(dest, get(src1));
+            case MicroOp.NOT -> set(dest, ~get(src1));
+            case MicroOp.NEG -> set(dest, -get(src1));
+            case MicroOp.ADD -> set(dest, get(src1) + get(src2));
+            case MicroOp.SUB -> set(dest, get(src1) - get(src2));
+            case MicroOp.MUL -> set(dest, get(src1) * get(src2));
+            case MicroOp.DIV -> set(dest, get(src1) / get(src2));
+            case MicroOp.AND -> set(dest, get(src1) & get(src2));
+            case MicroOp.OR  -> set(dest, get(src1) | get(src2));
+            case MicroOp.XOR -> set(dest, get(src1) ^ get(src2));
+            case MicroOp.SHL -> set(dest, get(src1) << get(src2));
+            case MicroOp.SHR -> set(dest, get(src1) >>> get(src2));
+            case MicroOp.SAR -> set(dest, get(src1) >> get(src2));
+            case MicroOp.MOD -> set(dest, get(src1) % get(src2));
+            case MicroOp.JMP -> jump(get(dest));
+            case MicroOp.JZ  -> { if (get(src1) == 0) jump(get(dest)); }
+            case MicroOp.JNZ -> { if (get(src1) != 0) jump(get(dest)); }
+            case MicroOp.JPP -> { if (get(src1) >  0) jump(get(dest)); }
+            case MicroOp.JPN -> { if (get(src1) <  0) jump(get(dest)); }
+            case MicroOp.JAL -> { set(src1, programCounter); jump(get(dest)); }
+            case MicroOp.LD  -> { set(dest, memory.readLong(get(src1))); loads++; }
+            case MicroOp.ST  -> { memory.writeLong(get(dest), get(src1)); stores++; }
+            case MicroOp.LB  -> { set(dest, memory.readByte(get(src1))); loads++; }
+            case MicroOp.SB  -> { memory.writeByte(get(dest), (byte) get(src1)); stores++; }
+            case MicroOp.LI  -> { set(dest, memory.readInt(get(src1))); loads++; }
+            case MicroOp.SI  -> { memory.writeInt(get(dest), (int) get(src1)); stores++; }
+            case MicroOp.LDI -> set(dest, imm);
+            case MicroOp.LOAD_CONST -> {
+                long[] folded = instructionCache.foldedConstants(programCounter - 4, imm);
+                for (int i = 0; i < folded.length; i += 2) {
+                    registers[(int) folded[i]] = folded[i + 1];
+                }
+                programCounter += 4L * (dest - 1);
+                instructionsRetired += dest - 1;
+            }
+            case MicroOp.PUSH -> {
+                set(src2, imm);
+                set(dest, get(dest) - get(src2));
+                programCounter += 8; // a faulting store leaves PC past the ST, as unfused
+                instructionsRetired += 2;
+                memory.writeLong(get(dest), get(src1));
+                stores++;
+            }
+            case MicroOp.CAS -> { set(dest, memory.compareAndSwapLong(get(src1), get(dest), get(src2))); loads++; stores++; }
+            case MicroOp.FADD -> { set(dest, memory.getAndAddLong(get(src1), get(src2))); loads++; stores++; }
+            case MicroOp.MEMCPY -> { memory.copyBlock(get(dest), get(src1), get(src2)); loads++; stores++; }
+            case MicroOp.MEMSET -> { memory.fillBlock(get(dest), get(src2), (byte) get(src1)); stores++; }
+            case MicroOp.MEMCMP -> { set(dest, memory.compareBlocks(get(dest), get(src1), get(src2))); loads += 2; }
+            case MicroOp.FENCE -> VarHandle.fullFence();
+            case MicroOp.CID -> set(dest, coreId);
+            case MicroOp.WFI -> requestWait(get(dest));
+            case MicroOp.RTI -> returnFromInterrupt();
+            case MicroOp.CSRR -> set(dest, csrs[csr(imm)]);
+            case MicroOp.CSRW -> writeCsr(csr(imm), get(dest));
+            case MicroOp.BREAK -> throw BreakpointStop.INSTANCE;
+            case MicroOp.POP -> {
+                set(dest, memory.readLong(get(src1))); // a faulting load leaves PC past the LD
+                loads++;
+                set(src2, imm);
+                set(src1, get(src1) + get(src2));
+                programCounter += 8;
+                instructionsRetired += 2;
+            }
+            default -> throw new IllegalArgumentException("Unknown opcode: " + InstructionSet.getOpcode(imm)); // MicroOp.ILLEGAL
+        }
+    }
+
+    // PC is already past the jump, so a jump to the next instruction isn't taken
+    private void jump(long target) {
+        if (target != programCounter) takenBranches++;
+        programCounter = target;
+    }
+
     private void initROM() {
-        byte[] rom = ROMData.ROM;
-        if (rom.length > ROM_SIZE) throw new IllegalArgumentException("ROM too large");
-        memory.initializeROM(rom);
+        if (ROM_IMAGE.length() > ROM_SIZE) throw new IllegalArgumentException("ROM too large");
+        memory.initializeROM(ROM_IMAGE);
     }
 
     public long getRegister(int index) {
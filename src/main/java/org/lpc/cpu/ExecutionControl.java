@@ -0,0 +1,63 @@
+package org.lpc.cpu;
+
+/**
+ * Drives a CPU in slices so other threads can pause and resume it
+ * cooperatively. Pausing only takes effect between slices, so the
+ * CPU's own loop never reads shared state.
+ */
+public class ExecutionControl {
+    public static final long SLICE_INSTRUCTIONS = 1 << 16;
+
+    private final Object lock = new Object();
+    private boolean paused = false;
+
+    /**
+     * Runs until the CPU halts or faults. While the guest waits for an event
+     * the thread parks instead of spinning. Blocks while paused; a breakpoint
+     * or watchpoint pauses too, so the debug views can inspect the core and
+     * resume it. An interrupt returns BUDGET_EXHAUSTED with the interrupt flag
+     * kept, leaving the CPU resumable.
+     */
+    public RunState run(Cpu cpu) {
+        RunState state;
+        do {
+            try {
+                cpu.awaitEvent(Long.MAX_VALUE);
+                awaitResumed();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return RunState.BUDGET_EXHAUSTED;
+            }
+            state = cpu.run(SLICE_INSTRUCTIONS);
+            if (state == RunState.BREAKPOINT) pause();
+        } while (state != RunState.HALTED && state != RunState.FAULT);
+        return state;
+    }
+
+    public void pause() {
+        synchronized (lock) {
+            paused = true;
+        }
+    }
+
+    public void resume() {
+        synchronized (lock) {
+            paused = false;
+            lock.notifyAll();
+        }
+    }
+
+    public boolean isPaused() {
+        synchronized (lock) {
+            return paused;
+        }
+    }
+
+    private void awaitResumed() throws InterruptedException {
+        synchronized (lock) {
+            while (paused) {
+                lock.wait();
+            }
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package org.lpc.cpu;
+
+/**
+ * How {@link Cpu#run()} executes guest code.
+ */
+public enum ExecutionMode {
+    /** Decode-and-dispatch, one instruction at a time */
+    INTERPRETER,
+    /** Hot basic blocks are translated to JVM bytecode, cold code is interpreted */
+    JIT,
+    /** Runs every translated block through the interpreter as well and compares the results */
+    DIFFERENTIAL
+}
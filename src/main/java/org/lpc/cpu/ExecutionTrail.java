@@ -0,0 +1,318 @@
+package org.lpc.cpu;
+
+import org.lpc.cpu.jit.BlockCompiler;
+import org.lpc.memory.Memory;
+import org.lpc.memory.MemoryMap;
+
+import javax.annotation.Nullable;
+
+import java.io.PrintStream;
+
+/**
+ * The last instructions a core executed, kept to find out how a guest
+ * crashed and to step back from there, see {@link Cpu#setTrail} and
+ * {@link Cpu#stepBack}.
+ * .
+ * Each entry holds the PC, the instruction, the old value of the register
+ * it writes and the old contents of the memory it stores to. The core
+ * records them as it runs, straight into fixed-size arrays used as a ring,
+ * so recording never allocates and reading never re-executes anything.
+ * The old bytes of MEMCPY and MEMSET destinations go into a ring of their
+ * own; a block larger than it, or whose bytes have since been overwritten
+ * by newer blocks, ends the trail there, since nothing before it could be
+ * stepped back to. Read the trail only while the core isn't running.
+ * .
+ * Only the core's own registers and RAM/framebuffer stores are recorded.
+ * CSRs, device state and other cores' writes aren't, so stepping back over
+ * an interrupt, a CSRW or an MMIO store doesn't undo it.
+ */
+public final class ExecutionTrail {
+    /** No register written, or no memory stored to */
+    public static final int NONE = -1;
+    public static final int DEFAULT_BLOCK_CAPACITY = 1 << 20;
+
+    // Compiled blocks write their entries in one go from the slot after the newest, past the end if need be
+    private static final int SLACK = BlockCompiler.MAX_BLOCK_LENGTH;
+
+    private final int capacity;
+    private final int[] pcs; // guest addresses fit in 32 bits
+    private final long[] instructions; // decoded, see InstructionCache
+    private final long[] oldRegisters; // the length for a block store, which writes no register
+    private final long[] storeAddresses; // NONE if there's nothing to put back
+    private final long[] oldMemory; // where the old bytes start in blockBytes for a block store
+    private final byte[] blockBytes;
+    private long blockWritten; // bytes written to blockBytes, less those of the block stores stepped back
+    private long blockHighWater; // the most blockWritten has been: bytes before it less the length are gone
+
+    private int newest = -1;
+    private long recorded; // entries ever recorded, less those stepped back or dropped
+    private long validFrom; // entries recorded before this one are gone
+    private long usableFrom = -1; // validFrom past the block stores whose bytes are gone, -1 until worked out
+    private long newestRetired;
+    private boolean newestUnretired; // the newest entry faulted
+
+    /**
+     * One recorded instruction. An instruction that faulted is recorded but
+     * never retired: retiredBefore equals the core's count after the fault.
+     * A block store has its old bytes in oldBlock and their count in
+     * storeSize; oldMemory is then 0.
+     */
+    public record Entry(long pc, int instruction, long retiredBefore,
+                        int register, long oldRegister, long storeAddress, int storeSize, long oldMemory,
+                        @Nullable byte[] oldBlock) {
+
+        @Override
+        public String toString() {
+            int opcode = InstructionSet.getOpcode(instruction);
+            StringBuilder line = new StringBuilder(String.format("%,14d  0x%08X  %08X  %-5s",
+                    retiredBefore, pc, instruction, InstructionInfo.OPCODE_NAMES.getOrDefault(opcode, "???")));
+            if (register != NONE) {
+                line.append(String.format("  %s was 0x%X", RegisterInfo.REG_NAMES[register], oldRegister));
+            }
+            if (oldBlock != null) {
+                line.append(String.format("  [0x%X] was overwritten (%d bytes)", storeAddress, storeSize));
+            } else if (storeSize != NONE) {
+                line.append(String.format("  [0x%X] was 0x%X (%d bytes)", storeAddress, oldMemory, storeSize));
+            }
+            return line.toString();
+        }
+    }
+
+    public ExecutionTrail(int capacity) {
+        this(capacity, DEFAULT_BLOCK_CAPACITY);
+    }
+
+    /** blockCapacity bytes are kept for the old contents of MEMCPY and MEMSET destinations */
+    public ExecutionTrail(int capacity, int blockCapacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Trail capacity must be positive: " + capacity);
+        if (blockCapacity <= 0) throw new IllegalArgumentException("Block capacity must be positive: " + blockCapacity);
+        this.capacity = capacity;
+        pcs = new int[capacity + SLACK];
+        instructions = new long[capacity + SLACK];
+        oldRegisters = new long[capacity + SLACK];
+        storeAddresses = new long[capacity + SLACK];
+        oldMemory = new long[capacity + SLACK];
+        blockBytes = new byte[blockCapacity];
+    }
+
+    /*—— Recording —————————*/
+
+    /**
+     * Where a compiled block records its first instruction, the next ones
+     * follow. It saves the old value of each register written into
+     * oldRegisters and stores through recordStore; commit then adds the PCs
+     * and instructions of the ones that ran.
+     */
+    public int nextSlot() {
+        return newest + 1;
+    }
+
+    /** For compiled blocks, see nextSlot */
+    public long[] oldRegisters() {
+        return oldRegisters;
+    }
+
+    /** Called by compiled blocks for a store at slot, before it's made */
+    public void recordStore(int slot, Memory memory, long address, int size) {
+        if (isRestorable(address, size)) {
+            storeAddresses[slot] = address;
+            oldMemory[slot] = memory.peek(address, size);
+        } else {
+            storeAddresses[slot] = NONE;
+        }
+    }
+
+    /** Adds the first count instructions of a compiled block starting at pc, recorded from nextSlot on */
+    void commit(long pc, long[] decoded, int count) {
+        int first = newest + 1;
+        for (int k = 0; k < count; k++) {
+            pcs[first + k] = (int) pc + 4 * k;
+        }
+        System.arraycopy(decoded, 0, instructions, first, count);
+        int last = newest + count;
+        for (int i = capacity; i <= last; i++) { // ran past the end, wrap around
+            int to = i % capacity;
+            pcs[to] = pcs[i];
+            instructions[to] = instructions[i];
+            oldRegisters[to] = oldRegisters[i];
+            storeAddresses[to] = storeAddresses[i];
+            oldMemory[to] = oldMemory[i];
+        }
+        newest = last % capacity;
+        recorded += count;
+    }
+
+    /** Adds an entry for the plain instruction the core is about to execute at pc */
+    void record(long pc, long decoded, long oldRegister) {
+        if (++newest == capacity) newest = 0;
+        recorded++;
+        pcs[newest] = (int) pc;
+        instructions[newest] = decoded;
+        oldRegisters[newest] = oldRegister;
+    }
+
+    /** Adds the memory the newest entry's instruction is about to overwrite */
+    void recordStore(Memory memory, long address, int size) {
+        recordStore(newest, memory, address, size);
+    }
+
+    /** Adds the bytes a MEMCPY or MEMSET, the newest entry, is about to overwrite */
+    void recordBlock(Memory memory, long address, long length) {
+        if (length <= 0 || length > Integer.MAX_VALUE || !isRestorable(address, (int) length)) {
+            storeAddresses[newest] = NONE; // stores nothing, faults or goes to a device
+            return;
+        }
+        if (length > blockBytes.length) {
+            storeAddresses[newest] = NONE;
+            validFrom = recorded; // can't be undone, so nothing before it can
+            usableFrom = -1;
+            return;
+        }
+        int offset = (int) (blockWritten % blockBytes.length);
+        int first = (int) Math.min(length, blockBytes.length - offset);
+        memory.readBytes(address, blockBytes, offset, first);
+        memory.readBytes(address + first, blockBytes, 0, (int) length - first);
+        storeAddresses[newest] = address;
+        oldRegisters[newest] = length;
+        oldMemory[newest] = blockWritten;
+        blockWritten += length;
+        blockHighWater = Math.max(blockHighWater, blockWritten);
+    }
+
+    private boolean isBlockStore(int i) {
+        int op = InstructionCache.op(instructions[i]);
+        return (op == MicroOp.MEMCPY || op == MicroOp.MEMSET) && storeAddresses[i] != NONE;
+    }
+
+    // RAM and framebuffer stores can be put back; ROM and out of range ones fault, device ones have side effects
+    private static boolean isRestorable(long address, int size) {
+        long last = address + size - 1;
+        return (MemoryMap.isRamAddress(address) && MemoryMap.isRamAddress(last))
+                || (MemoryMap.isFramebufferAddress(address) && MemoryMap.isFramebufferAddress(last));
+    }
+
+    /** Entries ever recorded, to tell how many a run added */
+    long recorded() {
+        return recorded;
+    }
+
+    /**
+     * Ends a run that left retired instructions behind; unretired if the
+     * newest entry faulted. Instructions that stop the core for a breakpoint
+     * or watchpoint never execute and are dropped with dropNewest instead.
+     */
+    void settle(long retired, boolean unretired) {
+        newestRetired = unretired ? retired : retired - 1;
+        newestUnretired = unretired;
+        usableFrom = -1;
+    }
+
+    /** The core is about to run again, past an instruction that faulted */
+    void resume() {
+        if (newestUnretired && hasNewest()) dropNewest();
+        newestUnretired = false;
+    }
+
+    // Cheaper than size() > 0, which may have to look for expired block stores
+    boolean hasNewest() {
+        return recorded > validFrom;
+    }
+
+    void dropNewest() {
+        int i = newest;
+        if (isBlockStore(i)) blockWritten = oldMemory[i];
+        if (--newest < 0) newest = capacity - 1;
+        recorded--;
+    }
+
+    /** Removes and returns the newest entry, see Cpu.stepBack */
+    Entry removeNewest() {
+        Entry entry = get(0);
+        dropNewest();
+        newestRetired--;
+        newestUnretired = false;
+        return entry;
+    }
+
+    /*—— Reading —————————*/
+
+    /** back = 0 is the newest entry, size() - 1 the oldest */
+    public Entry get(int back) {
+        int size = size();
+        if (back < 0 || back >= size) throw new IndexOutOfBoundsException("No trail entry " + back + " of " + size);
+        int i = slotOf(recorded - 1 - back);
+        long decoded = instructions[i];
+        int op = InstructionCache.op(decoded);
+        int register = InstructionCache.writtenRegister(decoded);
+        long pc = Integer.toUnsignedLong(pcs[i]);
+        int instruction = InstructionCache.encode(decoded);
+        long retiredBefore = newestRetired - back;
+        long oldRegister = register == NONE ? 0 : oldRegisters[i];
+
+        if (isBlockStore(i)) {
+            byte[] oldBlock = new byte[(int) oldRegisters[i]];
+            int offset = (int) (oldMemory[i] % blockBytes.length);
+            int first = Math.min(oldBlock.length, blockBytes.length - offset);
+            System.arraycopy(blockBytes, offset, oldBlock, 0, first);
+            System.arraycopy(blockBytes, 0, oldBlock, first, oldBlock.length - first);
+            return new Entry(pc, instruction, retiredBefore, register, oldRegister,
+                    storeAddresses[i], oldBlock.length, 0, oldBlock);
+        }
+        int storeSize = switch (op) {
+            case MicroOp.ST, MicroOp.CAS, MicroOp.FADD -> Long.BYTES;
+            case MicroOp.SI -> Integer.BYTES;
+            case MicroOp.SB -> Byte.BYTES;
+            default -> NONE;
+        };
+        if (storeSize == NONE || storeAddresses[i] == NONE) {
+            return new Entry(pc, instruction, retiredBefore, register, oldRegister, 0, NONE, 0, null);
+        }
+        return new Entry(pc, instruction, retiredBefore, register, oldRegister,
+                storeAddresses[i], storeSize, oldMemory[i], null);
+    }
+
+    // The slot of the entry-th entry ever recorded, one of the last capacity ones
+    private int slotOf(long entry) {
+        int i = newest - (int) (recorded - 1 - entry);
+        return i < 0 ? i + capacity : i;
+    }
+
+    public int size() {
+        if (usableFrom < 0) usableFrom = expireBlocks();
+        return (int) Math.max(0, Math.min(recorded - usableFrom, capacity));
+    }
+
+    /**
+     * The entry after the newest block store whose old bytes newer blocks
+     * have overwritten, or validFrom; worked out when the trail is first
+     * read after a run, so recording doesn't have to keep track.
+     */
+    private long expireBlocks() {
+        long first = Math.max(validFrom, recorded - capacity);
+        long oldestKept = blockHighWater - blockBytes.length;
+        if (oldestKept <= 0) return first;
+        for (long entry = recorded - 1; entry >= first; entry--) {
+            int i = slotOf(entry);
+            if (isBlockStore(i) && oldMemory[i] < oldestKept) return entry + 1;
+        }
+        return first;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public void clear() {
+        validFrom = recorded;
+        usableFrom = -1;
+        newestUnretired = false;
+    }
+
+    /** Prints the newest count entries, oldest first, so a faulting instruction comes last */
+    public void dump(PrintStream out, int count) {
+        out.printf("%14s  %-10s  %-8s  %s%n", "Retired", "PC", "Raw", "Instruction");
+        for (int back = Math.min(count, size()) - 1; back >= 0; back--) {
+            out.println(get(back));
+        }
+    }
+}
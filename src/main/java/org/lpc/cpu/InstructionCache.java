@@ -0,0 +1,196 @@
+package org.lpc.cpu;
+
+import org.lpc.memory.Memory;
+import org.lpc.memory.MemoryMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decoded-instruction cache, organised per memory page.
+ * .
+ * Each page is decoded in one go the first time the CPU fetches from it and
+ * kept as packed longs holding the already-unpacked fields:
+ *   bits  0-7   dense operation ID ({@link MicroOp})
+ *   bits  8-15  dest register
+ *   bits 16-23  src register
+ *   bits 24-31  src2 register
+ *   bits 32-63  sign-extended immediate
+ * .
+ * Every page has two views: the plain one-slot-per-instruction decoding, and
+ * a fused view where the first slot of a recognised assembler idiom is replaced
+ * by a single operation (see {@link InstructionFuser}). The interpreter runs the
+ * fused view; the JIT and the differential checker need the plain one.
+ * .
+ * Decoded pages are tracked in {@link Memory}; any write to them drops the page,
+ * so self-modifying code and program reloads are picked up on the next fetch.
+ * MMIO and misaligned fetches bypass the cache.
+ * .
+ * Breakpoints are patched into the decoded form: both views hold a BREAK at
+ * their address, which keeps fused sequences and compiled blocks from
+ * spanning them. Memory itself is never modified.
+ */
+public final class InstructionCache {
+    private static final int SLOTS_PER_PAGE = (int) (MemoryMap.PAGE_SIZE / Integer.BYTES);
+
+    private final Memory memory;
+    private final DecodedPage[] pages = new DecodedPage[MemoryMap.PAGE_COUNT];
+    private final byte[] pageBytes = new byte[(int) MemoryMap.PAGE_SIZE];
+    private final Set<Long> breakpoints = ConcurrentHashMap.newKeySet();
+
+    public InstructionCache(Memory memory) {
+        this.memory = memory;
+        memory.addPageWriteListener(this::invalidatePage);
+    }
+
+    /** Fused view, a slot may stand for a whole instruction sequence */
+    public long fetch(long pc) {
+        DecodedPage page = pageFor(pc);
+        return page != null ? page.fused[slotOf(pc)] : decode(memory.readInt(pc));
+    }
+
+    /** Plain view, always exactly one instruction */
+    public long fetchPlain(long pc) {
+        DecodedPage page = pageFor(pc);
+        return page != null ? page.plain[slotOf(pc)] : decode(memory.readInt(pc));
+    }
+
+    /** Register/value pairs written by the LOAD_CONST fetched at pc */
+    public long[] foldedConstants(long pc, int index) {
+        // Redecodes if a racing device write dropped the page since the fetch
+        return pageFor(pc).constants[index];
+    }
+
+    private DecodedPage pageFor(long pc) {
+        if ((pc & 3) != 0 || Long.compareUnsigned(pc, MemoryMap.TOTAL_SIZE) >= 0 || MemoryMap.isMmioAddress(pc)) {
+            return null;
+        }
+        int pageIndex = MemoryMap.pageOf(pc);
+        DecodedPage page = pages[pageIndex];
+        return page != null ? page : decodePage(pageIndex);
+    }
+
+    private static int slotOf(long pc) {
+        return (int) (pc & MemoryMap.PAGE_MASK) >>> 2;
+    }
+
+    public void invalidatePage(int page) {
+        pages[page] = null;
+    }
+
+    /** Patches a BREAK over the instruction at pc, from the next decode of its page on */
+    public void addBreakpoint(long pc) {
+        if ((pc & 3) != 0 || pc < 0 || pc >= MemoryMap.TOTAL_SIZE || MemoryMap.isMmioAddress(pc)) {
+            throw new IllegalArgumentException(String.format("Invalid breakpoint address: 0x%X", pc));
+        }
+        breakpoints.add(pc);
+        invalidatePage(MemoryMap.pageOf(pc));
+    }
+
+    public void removeBreakpoint(long pc) {
+        if (breakpoints.remove(pc)) invalidatePage(MemoryMap.pageOf(pc));
+    }
+
+    public Set<Long> getBreakpoints() {
+        return Set.copyOf(breakpoints);
+    }
+
+    public void invalidateAll() {
+        Arrays.fill(pages, null);
+    }
+
+    private DecodedPage decodePage(int pageIndex) {
+        // Track before reading so a write racing with the decode still drops the page
+        memory.trackPage(pageIndex);
+        memory.readBytes(MemoryMap.pageBase(pageIndex), pageBytes, 0, pageBytes.length);
+
+        long[] plain = new long[SLOTS_PER_PAGE];
+        for (int i = 0; i < SLOTS_PER_PAGE; i++) {
+            plain[i] = decode(rawInstruction(i));
+        }
+        if (!breakpoints.isEmpty()) {
+            patchBreakpoints(pageIndex, plain);
+        }
+
+        List<long[]> constants = new ArrayList<>();
+        long[] fused = InstructionFuser.fuse(plain, constants);
+        DecodedPage page = new DecodedPage(plain, fused, constants.toArray(long[][]::new));
+        pages[pageIndex] = page;
+        return page;
+    }
+
+    private void patchBreakpoints(int pageIndex, long[] plain) {
+        for (long pc : breakpoints) {
+            if (MemoryMap.pageOf(pc) != pageIndex) continue;
+            plain[slotOf(pc)] = pack(MicroOp.BREAK, 0, 0, 0, rawInstruction(slotOf(pc)));
+        }
+    }
+
+    private int rawInstruction(int slot) {
+        int b = slot * Integer.BYTES;
+        return (pageBytes[b] & 0xFF)
+                | (pageBytes[b + 1] & 0xFF) << 8
+                | (pageBytes[b + 2] & 0xFF) << 16
+                | (pageBytes[b + 3] & 0xFF) << 24;
+    }
+
+    private record DecodedPage(long[] plain, long[] fused, long[][] constants) {}
+
+    /*—— Packed form —————————*/
+
+    public static long decode(int raw) {
+        int opcode = InstructionSet.getOpcode(raw);
+        int op = MicroOp.fromOpcode(opcode);
+        int imm = op == MicroOp.ILLEGAL ? raw : InstructionSet.getImmediate(raw);
+        return pack(op, InstructionSet.getDest(raw), InstructionSet.getSrc(raw), InstructionSet.getSrc2(raw), imm);
+    }
+
+    /** The instruction word a plain-view slot was decoded from */
+    public static int encode(long decoded) {
+        int op = op(decoded);
+        if (op == MicroOp.ILLEGAL || op == MicroOp.BREAK) return imm(decoded);
+        return InstructionSet.encodeInstruction(MicroOp.toOpcode(op), dest(decoded), src(decoded), src2(decoded), imm(decoded));
+    }
+
+    public static long pack(int op, int dest, int src, int src2, int imm) {
+        return (op & 0xFF)
+                | (dest & 0xFF) << 8
+                | (src & 0xFF) << 16
+                | (long) (src2 & 0xFF) << 24
+                | (long) imm << 32;
+    }
+
+    public static int op(long decoded) {
+        return (int) decoded & 0xFF;
+    }
+
+    public static int dest(long decoded) {
+        return (int) (decoded >>> 8) & 0xFF;
+    }
+
+    public static int src(long decoded) {
+        return (int) (decoded >>> 16) & 0xFF;
+    }
+
+    public static int src2(long decoded) {
+        return (int) (decoded >>> 24) & 0xFF;
+    }
+
+    public static int imm(long decoded) {
+        return (int) (decoded >> 32);
+    }
+
+    /** The register a plain instruction writes, or -1 for none */
+    public static int writtenRegister(long decoded) {
+        return switch (op(decoded)) {
+            case MicroOp.NOP, MicroOp.HLT, MicroOp.JMP, MicroOp.JZ, MicroOp.JNZ, MicroOp.JPP, MicroOp.JPN,
+                 MicroOp.ST, MicroOp.SB, MicroOp.SI, MicroOp.FENCE, MicroOp.WFI, MicroOp.RTI, MicroOp.CSRW,
+                 MicroOp.MEMCPY, MicroOp.MEMSET, MicroOp.BREAK, MicroOp.ILLEGAL -> -1;
+            case MicroOp.JAL -> src(decoded);
+            default -> dest(decoded);
+        };
+    }
+}
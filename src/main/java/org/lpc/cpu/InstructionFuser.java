@@ -0,0 +1,146 @@
+package org.lpc.cpu;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.lpc.cpu.InstructionCache.*;
+
+/**
+ * Recognises the fixed sequences the assembler expands pseudo-instructions into
+ * and replaces each with a single fused operation.
+ * .
+ * - Constant folding: a run of LDI and register ALU ops whose inputs are all
+ *   produced inside the run (the whole multi-chunk LDI expansion from
+ *   BaseLDIExpander) becomes LOAD_CONST, which writes the final register values.
+ * - PUSH: LDI t9, 8; SUB sp, sp, t9; ST sp, reg
+ * - POP:  LD reg, sp; LDI t9, 8; ADD sp, sp, t9
+ * .
+ * Only the fused view of the first slot changes, every other slot keeps its own
+ * decoding, so a jump into the middle of a sequence still executes correctly.
+ * Sequences never cross a page, so page invalidation covers them.
+ */
+final class InstructionFuser {
+    private static final int MIN_FOLD_LENGTH = 4;
+    private static final int MAX_FOLD_LENGTH = 0xFF; // instruction count is kept in the dest byte
+
+    private InstructionFuser() {}
+
+    /**
+     * Builds the fused view of a decoded page.
+     * @param constants receives the folded register/value pairs, indexed by LOAD_CONST's imm
+     */
+    static long[] fuse(long[] plain, List<long[]> constants) {
+        long[] fused = plain.clone();
+        for (int i = 0; i < plain.length; i++) {
+            long folded = foldConstants(plain, i, constants);
+            if (folded != 0) {
+                fused[i] = folded;
+            } else if (isPush(plain, i)) {
+                fused[i] = pack(MicroOp.PUSH, dest(plain[i + 1]), src(plain[i + 2]), dest(plain[i]), imm(plain[i]));
+            } else if (isPop(plain, i)) {
+                fused[i] = pack(MicroOp.POP, dest(plain[i]), src(plain[i]), dest(plain[i + 1]), imm(plain[i + 1]));
+            }
+        }
+        return fused;
+    }
+
+    private static boolean isPush(long[] plain, int i) {
+        if (i + 2 >= plain.length) return false;
+        long ldi = plain[i], sub = plain[i + 1], st = plain[i + 2];
+        int scratch = dest(ldi), sp = dest(sub);
+        return op(ldi) == MicroOp.LDI
+                && op(sub) == MicroOp.SUB && src(sub) == sp && src2(sub) == scratch && sp != scratch
+                && op(st) == MicroOp.ST && dest(st) == sp;
+    }
+
+    private static boolean isPop(long[] plain, int i) {
+        if (i + 2 >= plain.length) return false;
+        long ld = plain[i], ldi = plain[i + 1], add = plain[i + 2];
+        int sp = src(ld), scratch = dest(ldi);
+        return op(ld) == MicroOp.LD
+                && op(ldi) == MicroOp.LDI
+                && op(add) == MicroOp.ADD && dest(add) == sp && src(add) == sp && src2(add) == scratch
+                && sp != scratch;
+    }
+
+    /**
+     * Folds the run starting at i if every value it computes is a constant.
+     * @return the LOAD_CONST slot, or 0 if the run is too short to be worth it
+     */
+    private static long foldConstants(long[] plain, int start, List<long[]> constants) {
+        long[] values = new long[Cpu.REGISTER_COUNT];
+        boolean[] known = new boolean[Cpu.REGISTER_COUNT];
+        List<Integer> written = new ArrayList<>();
+
+        int end = start;
+        while (end < plain.length && end - start < MAX_FOLD_LENGTH) {
+            long d = plain[end];
+            int op = op(d);
+            if (op == MicroOp.NOP) {
+                // A NOP run must stay visible to the CPU's idle detection
+                if (end > start && op(plain[end - 1]) == MicroOp.NOP) break;
+                end++;
+                continue;
+            }
+            int a = src(d), b = src2(d);
+            long value;
+            if (op == MicroOp.LDI) {
+                value = imm(d);
+            } else if (isUnary(op) && known[a]) {
+                value = evaluate(op, values[a], 0);
+            } else if (isBinary(op) && known[a] && known[b]) {
+                value = evaluate(op, values[a], values[b]);
+            } else {
+                break;
+            }
+            int reg = dest(d);
+            if (!known[reg] && !written.contains(reg)) written.add(reg);
+            values[reg] = value;
+            known[reg] = true;
+            end++;
+        }
+        while (end > start && op(plain[end - 1]) == MicroOp.NOP) end--;
+
+        int length = end - start;
+        if (length < MIN_FOLD_LENGTH || written.size() >= length) return 0;
+
+        long[] pairs = new long[written.size() * 2];
+        for (int i = 0; i < written.size(); i++) {
+            pairs[i * 2] = written.get(i);
+            pairs[i * 2 + 1] = values[written.get(i)];
+        }
+        constants.add(pairs);
+        return pack(MicroOp.LOAD_CONST, length, 0, 0, constants.size() - 1);
+    }
+
+    private static boolean isUnary(int op) {
+        return op == MicroOp.MOV || op == MicroOp.NOT || op == MicroOp.NEG;
+    }
+
+    private static boolean isBinary(int op) {
+        return switch (op) {
+            case MicroOp.ADD, MicroOp.SUB, MicroOp.MUL, MicroOp.AND, MicroOp.OR, MicroOp.XOR,
+                 MicroOp.SHL, MicroOp.SHR, MicroOp.SAR -> true;
+            default -> false; // DIV/MOD can fault, leave them to the CPU
+        };
+    }
+
+    // Mirrors Cpu.execute for the foldable operations
+    private static long evaluate(int op, long a, long b) {
+        return switch (op) {
+            case MicroOp.MOV -> a;
+            case MicroOp.NOT -> ~a;
+            case MicroOp.NEG -> -a;
+            case MicroOp.ADD -> a + b;
+            case MicroOp.SUB -> a - b;
+            case MicroOp.MUL -> a * b;
+            case MicroOp.AND -> a & b;
+            case MicroOp.OR  -> a | b;
+            case MicroOp.XOR -> a ^ b;
+            case MicroOp.SHL -> a << b;
+            case MicroOp.SHR -> a >>> b;
+            case MicroOp.SAR -> a >> b;
+            default -> throw new IllegalStateException("Not foldable: " + op);
+        };
+    }
+}
@@ -15,6 +15,12 @@ public class InstructionInfo {
     public static final Map<String, Integer> OPCODES = Map.ofEntries(
             Map.entry("NOP", InstructionSet.OP_NOP),
             Map.entry("HLT", InstructionSet.OP_HLT),
+            Map.entry("FENCE", InstructionSet.OP_FENCE),
+            Map.entry("CID", InstructionSet.OP_CID),
+            Map.entry("WFI", InstructionSet.OP_WFI),
+            Map.entry("RTI", InstructionSet.OP_RTI),
+            Map.entry("CSRR", InstructionSet.OP_CSRR),
+            Map.entry("CSRW", InstructionSet.OP_CSRW),
             Map.entry("MOV", InstructionSet.OP_MOV),
             Map.entry("NOT", InstructionSet.OP_NOT),
             Map.entry("NEG", InstructionSet.OP_NEG),
@@ -41,12 +47,23 @@ public class InstructionInfo {
             Map.entry("LB" , InstructionSet.OP_LB),
             Map.entry("SI" , InstructionSet.OP_SI),
             Map.entry("LI" , InstructionSet.OP_LI),
+            Map.entry("CAS", InstructionSet.OP_CAS),
+            Map.entry("FADD", InstructionSet.OP_FADD),
+            Map.entry("MEMCPY", InstructionSet.OP_MEMCPY),
+            Map.entry("MEMSET", InstructionSet.OP_MEMSET),
+            Map.entry("MEMCMP", InstructionSet.OP_MEMCMP),
             Map.entry("LDI", InstructionSet.OP_LDI)
     );
 
     public static final Map<String, OperandType[]> OPERAND_TYPES = Map.ofEntries(
             Map.entry("NOP", new OperandType[0]),
             Map.entry("HLT", new OperandType[0]),
+            Map.entry("FENCE", new OperandType[0]),
+            Map.entry("CID", new OperandType[]{OperandType.REGISTER}),
+            Map.entry("WFI", new OperandType[]{OperandType.REGISTER}),
+            Map.entry("RTI", new OperandType[0]),
+            Map.entry("CSRR", new OperandType[]{OperandType.REGISTER, OperandType.IMMEDIATE}),
+            Map.entry("CSRW", new OperandType[]{OperandType.REGISTER, OperandType.IMMEDIATE}),
             Map.entry("MOV", new OperandType[]{OperandType.REGISTER, OperandType.REGISTER}),
             Map.entry("NOT", new OperandType[]{OperandType.REGISTER, OperandType.REGISTER}),
             Map.entry("NEG", new OperandType[]{OperandType.REGISTER, OperandType.REGISTER}),
@@ -73,6 +90,11 @@ public class InstructionInfo {
             Map.entry("LB" , new OperandType[]{OperandType.REGISTER, OperandType.REGISTER}),
             Map.entry("SI" , new OperandType[]{OperandType.REGISTER, OperandType.REGISTER}),
             Map.entry("LI" , new OperandType[]{OperandType.REGISTER, OperandType.REGISTER}),
+            Map.entry("CAS", new OperandType[]{OperandType.REGISTER, OperandType.REGISTER, OperandType.REGISTER}),
+            Map.entry("FADD", new OperandType[]{OperandType.REGISTER, OperandType.REGISTER, OperandType.REGISTER}),
+            Map.entry("MEMCPY", new OperandType[]{OperandType.REGISTER, OperandType.REGISTER, OperandType.REGISTER}),
+            Map.entry("MEMSET", new OperandType[]{OperandType.REGISTER, OperandType.REGISTER, OperandType.REGISTER}),
+            Map.entry("MEMCMP", new OperandType[]{OperandType.REGISTER, OperandType.REGISTER, OperandType.REGISTER}),
             Map.entry("LDI", new OperandType[]{OperandType.REGISTER, OperandType.IMMEDIATE})
     );
 
@@ -80,6 +102,12 @@ public class InstructionInfo {
         {
             put(InstructionSet.OP_NOP, "NOP");
             put(InstructionSet.OP_HLT, "HLT");
+            put(InstructionSet.OP_FENCE, "FENCE");
+            put(InstructionSet.OP_CID, "CID");
+            put(InstructionSet.OP_WFI, "WFI");
+            put(InstructionSet.OP_RTI, "RTI");
+            put(InstructionSet.OP_CSRR, "CSRR");
+            put(InstructionSet.OP_CSRW, "CSRW");
             put(InstructionSet.OP_MOV, "MOV");
             put(InstructionSet.OP_NOT, "NOT");
             put(InstructionSet.OP_NEG, "NEG");
@@ -106,6 +134,11 @@ public class InstructionInfo {
             put(InstructionSet.OP_LB , "LB");
             put(InstructionSet.OP_SI , "SI");
             put(InstructionSet.OP_LI , "LI");
+            put(InstructionSet.OP_CAS, "CAS");
+            put(InstructionSet.OP_FADD, "FADD");
+            put(InstructionSet.OP_MEMCPY, "MEMCPY");
+            put(InstructionSet.OP_MEMSET, "MEMSET");
+            put(InstructionSet.OP_MEMCMP, "MEMCMP");
             put(InstructionSet.OP_LDI, "LDI");
         }
     };
@@ -15,6 +15,61 @@ package org.lpc.cpu;
  *   INSTR rdest, imm             ; For immediate loads (LDI)
  *   JMP  rdest                   ; For jump-to-register
  *   JMP  label                   ; For pseudo-instruction (loads label addr into a temp, then JMP)
+ *
+ * Memory model (multi-core):
+ * - Aligned loads and stores of 1, 4 and 8 bytes are single-copy atomic.
+ * - A core always observes its own accesses in program order.
+ * - Other cores are only guaranteed to observe them in program order across
+ *   a FENCE, CAS or FADD, which are full barriers: no access before one may be
+ *   reordered with any access after it. The current implementation is
+ *   sequentially consistent, but code must not rely on that.
+ * - CAS and FADD are atomic read-modify-writes on 8-byte RAM or framebuffer
+ *   words at any alignment (malloc only aligns to 4); ROM-writing or MMIO
+ *   targets fault.
+ * - MMIO accesses are never reordered with each other.
+ * - MEMCPY, MEMSET and MEMCMP are neither atomic nor barriers: other cores
+ *   may see a block half copied. On MMIO they access one byte at a time.
+ * - Code written by one core may only be executed by another after a FENCE
+ *   on the executing core.
+ *
+ * Interrupts (boot core only):
+ * - The interrupt controller (MMIO+0x200) asserts a line while it is pending
+ *   and unmasked. The core checks at basic-block boundaries (after a jump and
+ *   at the start of every run slice), and only while STATUS.IE is set.
+ * - Taking an interrupt saves the PC to resume at in EPC and the line in
+ *   CAUSE, moves IE to PIE and clears it, then jumps to IVEC.
+ * - RTI jumps to EPC and restores IE from PIE. The handler acknowledges the
+ *   line at the controller first, or it is taken again right away.
+ * - Interrupted code can be anywhere, so handlers preserve every register
+ *   they touch; pseudo-instructions clobber t9, which SCRATCH can hold.
+ *
+ * Paging (per core, off at reset):
+ * - Writing a nonzero PTBR turns paging on: from the next instruction every
+ *   PC, load, store and block operation address is virtual, and so are IVEC
+ *   and EPC. Writing 0 turns it off again.
+ * - Virtual addresses are 30 bits: bits 29-21 index the root table at PTBR,
+ *   bits 20-12 the second-level table its entry points to, bits 11-0 are the
+ *   offset in the 4 KB page. Tables are 512 8-byte entries in RAM, page aligned.
+ * - An entry holds the physical page address in bits 12-47 and the PTE_
+ *   bits below. Root entries only need PTE_PRESENT; the second-level entry's
+ *   bits decide access. There are no accessed or dirty bits.
+ * - Translations are cached per core. Present entries that change only take
+ *   effect once PTBR is written again, which flushes the cache; mapping a page
+ *   that wasn't present needs no flush.
+ * - STATUS.U is user mode. User code may only access PTE_USER pages, and
+ *   HLT, WFI, RTI, CSRR and CSRW trap instead of executing. The supervisor
+ *   may access every page its bits allow. Without paging, U has no effect.
+ * - A trap is taken like an interrupt but whatever STATUS.IE is: EPC holds
+ *   the PC of the instruction that trapped, which had no effect, so RTI
+ *   retries it. CAUSE holds a CAUSE_ code, BADADDR the virtual address that
+ *   faulted. Traps and interrupts save U in PU and enter supervisor mode; RTI
+ *   restores it. A trap while IVEC is 0 faults the core instead.
+ * - An access crossing into a page mapped elsewhere goes a byte at a time,
+ *   so it isn't single-copy atomic; CAS and FADD on one fault the core. Block
+ *   operations check every page before they start, then copy as memmove by
+ *   virtual address.
+ * - Paged code is always interpreted, unfused; the JIT, the profiler and the
+ *   execution trail only see code running without paging.
  */
 public final class InstructionSet {
 
@@ -23,6 +78,12 @@ public final class InstructionSet {
     // Special operations
     public static final int OP_NOP = 0x00; // NOP                            ; No operation
     public static final int OP_HLT = 0x01; // HLT                            ; Halt CPU
+    public static final int OP_FENCE = 0x02; // FENCE                        ; Full memory barrier
+    public static final int OP_CID = 0x03; // CID rdest                      ; rdest = ID of the executing core
+    public static final int OP_WFI = 0x04; // WFI rtimeout                   ; Sleep until a device event or rtimeout ms (0 = no limit)
+    public static final int OP_RTI = 0x05; // RTI                            ; Return from interrupt: PC = EPC, IE = PIE
+    public static final int OP_CSRR = 0x06; // CSRR rdest, csr               ; rdest = csr (see Control and Status Registers)
+    public static final int OP_CSRW = 0x07; // CSRW rsrc, csr                ; csr = rsrc
 
     // 2-register ops: rdest = op(rsrc)
     public static final int OP_MOV = 0x10; // MOV rdest, rsrc                ; Copy
@@ -58,6 +119,15 @@ public final class InstructionSet {
     public static final int OP_LI  = 0x44; // LI  rdest, rsrc                ; rdest = int(mem[rsrc])
     public static final int OP_SI  = 0x45; // SI  rdest, rsrc                ; mem[rdest] = int(rsrc)
 
+    // Atomics (64-bit, see the memory model above)
+    public static final int OP_CAS  = 0x46; // CAS  rdest, raddr, rnew       ; old = mem[raddr]; if (old == rdest) mem[raddr] = rnew; rdest = old
+    public static final int OP_FADD = 0x47; // FADD rdest, raddr, rinc       ; rdest = mem[raddr]; mem[raddr] += rinc
+
+    // Block operations (rlen bytes)
+    public static final int OP_MEMCPY = 0x48; // MEMCPY rdest, rsrc, rlen    ; Copy, ranges may overlap (memmove)
+    public static final int OP_MEMSET = 0x49; // MEMSET rdest, rval, rlen    ; Fill with byte(rval)
+    public static final int OP_MEMCMP = 0x4A; // MEMCMP rdest, rsrc, rlen    ; rdest = -1, 0 or 1 as bytes at rdest are below, equal to or above rsrc, unsigned
+
     // Immediate load (sign-extended 10-bit)
     public static final int OP_LDI = 0x50; // LDI rdest, imm10               ; rdest = imm (-512 to +511)
 
@@ -84,6 +154,37 @@ public final class InstructionSet {
     // — Immediate ALU ops
     // INSTR rdest, rsrc1, imm          ; Expanded into temp + register operation
 
+    /*—— Control and Status Registers —————————*/
+
+    public static final int CSR_STATUS = 0;  // bit 0 IE: interrupts enabled, bit 1 PIE: IE before the current interrupt
+    public static final int CSR_IVEC = 1;    // Interrupt handler address
+    public static final int CSR_EPC = 2;     // PC the interrupted code resumes at
+    // Why the handler was entered: 0-63 the line of the interrupt being handled,
+    // 64-67 a trap, see CAUSE_FETCH_FAULT, CAUSE_LOAD_FAULT, CAUSE_STORE_FAULT and CAUSE_PRIVILEGED
+    public static final int CSR_CAUSE = 3;
+    public static final int CSR_SCRATCH = 4; // Free for handlers, e.g. to save t9
+    public static final int CSR_PTBR = 5;    // Physical address of the root page table, 0 = paging off; see Paging
+    public static final int CSR_BADADDR = 6; // Virtual address of the access that caused a page fault
+    public static final int CSR_COUNT = 7;
+
+    public static final long STATUS_IE = 1;
+    public static final long STATUS_PIE = 2;
+    public static final long STATUS_U = 4;   // User mode
+    public static final long STATUS_PU = 8;  // U before the current interrupt or trap
+
+    // CAUSE of a trap, always 64 or more so it never collides with an interrupt line
+    public static final int CAUSE_FETCH_FAULT = 64; // PC not mapped executable
+    public static final int CAUSE_LOAD_FAULT = 65;  // Load address not mapped readable
+    public static final int CAUSE_STORE_FAULT = 66; // Store address not mapped writable
+    public static final int CAUSE_PRIVILEGED = 67;  // Supervisor-only instruction in user mode
+
+    // Page table entry bits
+    public static final long PTE_PRESENT = 1;
+    public static final long PTE_READ = 2;
+    public static final long PTE_WRITE = 4;
+    public static final long PTE_EXEC = 8;
+    public static final long PTE_USER = 16;
+
     /*—— Instruction Format —————————*/
 
     public static final int OPCODE_BITS = 7;
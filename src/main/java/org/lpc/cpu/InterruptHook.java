@@ -0,0 +1,14 @@
+package org.lpc.cpu;
+
+/** Intercepts the interrupts the boot core takes, see Cpu.setInterruptHook */
+@FunctionalInterface
+public interface InterruptHook {
+    /**
+     * Called at every block boundary where the core checks for interrupts
+     * while they are enabled.
+     * @param instructionsRetired the core's count at this boundary
+     * @param line the controller's lowest active line, -1 if none
+     * @return the line the core takes, -1 for none
+     */
+    int onPoll(long instructionsRetired, int line);
+}
@@ -0,0 +1,153 @@
+package org.lpc.cpu;
+
+import java.util.Arrays;
+
+/**
+ * Dense internal operation IDs used by the decoded-instruction cache.
+ * ISA opcodes are sparse (grouped by nibble), these are contiguous so the
+ * interpreter dispatch compiles to a compact jump table.
+ */
+public final class MicroOp {
+    public static final int NOP = 0;
+    public static final int HLT = 1;
+    public static final int MOV = 2;
+    public static final int NOT = 3;
+    public static final int NEG = 4;
+    public static final int ADD = 5;
+    public static final int SUB = 6;
+    public static final int MUL = 7;
+    public static final int DIV = 8;
+    public static final int AND = 9;
+    public static final int OR  = 10;
+    public static final int XOR = 11;
+    public static final int SHL = 12;
+    public static final int SHR = 13;
+    public static final int SAR = 14;
+    public static final int MOD = 15;
+    public static final int JMP = 16;
+    public static final int JZ  = 17;
+    public static final int JNZ = 18;
+    public static final int JPP = 19;
+    public static final int JPN = 20;
+    public static final int JAL = 21;
+    public static final int LD  = 22;
+    public static final int ST  = 23;
+    public static final int LB  = 24;
+    public static final int SB  = 25;
+    public static final int LI  = 26;
+    public static final int SI  = 27;
+    public static final int LDI = 28;
+    public static final int ILLEGAL = 29; // imm holds the raw instruction
+
+    // Fused operations, produced by InstructionFuser from assembler idioms
+    public static final int LOAD_CONST = 30; // dest = instruction count, imm = index of the folded constants
+    public static final int PUSH = 31;       // LDI src2, imm; SUB dest, dest, src2; ST dest, src
+    public static final int POP = 32;        // LD dest, src; LDI src2, imm; ADD src, src, src2
+
+    // Multi-core, wait and interrupt operations, always interpreted
+    public static final int CAS = 33;
+    public static final int FADD = 34;
+    public static final int FENCE = 35;
+    public static final int CID = 36;
+    public static final int WFI = 37;
+    public static final int RTI = 38;
+    public static final int CSRR = 39;
+    public static final int CSRW = 40;
+
+    // Block memory operations, always interpreted
+    public static final int MEMCPY = 41;
+    public static final int MEMSET = 42;
+    public static final int MEMCMP = 43;
+
+    // Debugger breakpoint patched over an instruction, imm holds the raw instruction; never compiled
+    public static final int BREAK = 44;
+
+    private static final int[] BY_OPCODE = new int[1 << InstructionSet.OPCODE_BITS];
+    private static final int[] OPCODES = new int[BREAK];
+
+    static {
+        Arrays.fill(BY_OPCODE, ILLEGAL);
+        BY_OPCODE[InstructionSet.OP_NOP] = NOP;
+        BY_OPCODE[InstructionSet.OP_HLT] = HLT;
+        BY_OPCODE[InstructionSet.OP_MOV] = MOV;
+        BY_OPCODE[InstructionSet.OP_NOT] = NOT;
+        BY_OPCODE[InstructionSet.OP_NEG] = NEG;
+        BY_OPCODE[InstructionSet.OP_ADD] = ADD;
+        BY_OPCODE[InstructionSet.OP_SUB] = SUB;
+        BY_OPCODE[InstructionSet.OP_MUL] = MUL;
+        BY_OPCODE[InstructionSet.OP_DIV] = DIV;
+        BY_OPCODE[InstructionSet.OP_AND] = AND;
+        BY_OPCODE[InstructionSet.OP_OR ] = OR;
+        BY_OPCODE[InstructionSet.OP_XOR] = XOR;
+        BY_OPCODE[InstructionSet.OP_SHL] = SHL;
+        BY_OPCODE[InstructionSet.OP_SHR] = SHR;
+        BY_OPCODE[InstructionSet.OP_SAR] = SAR;
+        BY_OPCODE[InstructionSet.OP_MOD] = MOD;
+        BY_OPCODE[InstructionSet.OP_JMP] = JMP;
+        BY_OPCODE[InstructionSet.OP_JZ ] = JZ;
+        BY_OPCODE[InstructionSet.OP_JNZ] = JNZ;
+        BY_OPCODE[InstructionSet.OP_JPP] = JPP;
+        BY_OPCODE[InstructionSet.OP_JPN] = JPN;
+        BY_OPCODE[InstructionSet.OP_JAL] = JAL;
+        BY_OPCODE[InstructionSet.OP_LD ] = LD;
+        BY_OPCODE[InstructionSet.OP_ST ] = ST;
+        BY_OPCODE[InstructionSet.OP_LB ] = LB;
+        BY_OPCODE[InstructionSet.OP_SB ] = SB;
+        BY_OPCODE[InstructionSet.OP_LI ] = LI;
+        BY_OPCODE[InstructionSet.OP_SI ] = SI;
+        BY_OPCODE[InstructionSet.OP_LDI] = LDI;
+        BY_OPCODE[InstructionSet.OP_CAS] = CAS;
+        BY_OPCODE[InstructionSet.OP_FADD] = FADD;
+        BY_OPCODE[InstructionSet.OP_FENCE] = FENCE;
+        BY_OPCODE[InstructionSet.OP_CID] = CID;
+        BY_OPCODE[InstructionSet.OP_WFI] = WFI;
+        BY_OPCODE[InstructionSet.OP_RTI] = RTI;
+        BY_OPCODE[InstructionSet.OP_CSRR] = CSRR;
+        BY_OPCODE[InstructionSet.OP_CSRW] = CSRW;
+        BY_OPCODE[InstructionSet.OP_MEMCPY] = MEMCPY;
+        BY_OPCODE[InstructionSet.OP_MEMSET] = MEMSET;
+        BY_OPCODE[InstructionSet.OP_MEMCMP] = MEMCMP;
+        for (int opcode = 0; opcode < BY_OPCODE.length; opcode++) {
+            if (BY_OPCODE[opcode] != ILLEGAL) OPCODES[BY_OPCODE[opcode]] = opcode;
+        }
+    }
+
+    public static int fromOpcode(int opcode) {
+        return BY_OPCODE[opcode];
+    }
+
+    /** ISA opcode of an operation that decodes from one, i.e. not ILLEGAL, fused or BREAK */
+    public static int toOpcode(int op) {
+        return OPCODES[op];
+    }
+
+    /** Whether the operation ends a basic block (control transfer or halt) */
+    public static boolean endsBlock(int op) {
+        return op == HLT || isJump(op) || op == RTI;
+    }
+
+    public static boolean isJump(int op) {
+        return op >= JMP && op <= JAL;
+    }
+
+    /** Plain loads; the fused POP and the atomics load too */
+    public static boolean isLoad(int op) {
+        return op == LD || op == LB || op == LI;
+    }
+
+    /** Plain stores; the fused PUSH and the atomics store too */
+    public static boolean isStore(int op) {
+        return op == ST || op == SB || op == SI;
+    }
+
+    public static boolean isBlock(int op) {
+        return op >= MEMCPY && op <= MEMCMP;
+    }
+
+    /** Supervisor only, they trap in user mode */
+    public static boolean isPrivileged(int op) {
+        return op == HLT || op == WFI || op == RTI || op == CSRR || op == CSRW;
+    }
+
+    private MicroOp() {}
+}
@@ -0,0 +1,241 @@
+package org.lpc.cpu;
+
+import org.lpc.memory.Memory;
+import org.lpc.memory.Memory.MemoryException;
+import org.lpc.memory.MemoryMap;
+
+import java.util.Arrays;
+
+import static org.lpc.cpu.InstructionSet.PTE_PRESENT;
+import static org.lpc.cpu.InstructionSet.PTE_READ;
+import static org.lpc.cpu.InstructionSet.PTE_USER;
+import static org.lpc.cpu.InstructionSet.PTE_WRITE;
+
+/**
+ * A core's address translation while paging is on, see the Paging section
+ * of {@link InstructionSet}. Accesses go to Memory at the physical address,
+ * so watchpoints, MMIO and ROM work as without paging.
+ * .
+ * Translations are cached in a direct-mapped TLB indexed by the low bits of
+ * the virtual page number. A hit costs a tag compare and a permission test,
+ * a miss walks both table levels with two uncached reads. Only present
+ * entries are cached, so a page fault handler that maps the page needs no
+ * flush; the core flushes whenever PTBR is written.
+ * .
+ * Every page an access touches is checked before any byte moves, so an
+ * instruction that faults has had no effect and can be retried.
+ */
+final class Mmu {
+    private static final int PAGE_SHIFT = MemoryMap.PAGE_SHIFT;
+    private static final long PAGE_SIZE = MemoryMap.PAGE_SIZE;
+    private static final long PAGE_MASK = MemoryMap.PAGE_MASK;
+    private static final int LEVEL_BITS = 9; // 512 entries of 8 bytes per table
+    private static final long LEVEL_MASK = (1L << LEVEL_BITS) - 1;
+    private static final int VPN_BITS = 2 * LEVEL_BITS;
+    private static final long FRAME_MASK = ((1L << 48) - 1) & ~PAGE_MASK; // physical page address bits of an entry
+    private static final int TLB_SIZE = 256;
+    private static final int TLB_MASK = TLB_SIZE - 1;
+
+    private final Memory memory;
+    private final long[] csrs; // the core's, for PTBR
+    private final long[] tags = new long[TLB_SIZE]; // virtual page number, -1 if empty
+    private final long[] entries = new long[TLB_SIZE]; // the page table entry
+
+    Mmu(Memory memory, long[] csrs) {
+        this.memory = memory;
+        this.csrs = csrs;
+        flush();
+    }
+
+    boolean isEnabled() {
+        return csrs[InstructionSet.CSR_PTBR] != 0;
+    }
+
+    void flush() {
+        Arrays.fill(tags, -1);
+    }
+
+    /**
+     * The physical address of va, or a Trap if its page isn't present or
+     * lacks access (PTE_EXEC, PTE_READ or PTE_WRITE) or, for user code, PTE_USER.
+     */
+    long translate(long va, long access, boolean user) {
+        long vpn = va >>> PAGE_SHIFT;
+        int slot = (int) vpn & TLB_MASK;
+        long entry = tags[slot] == vpn ? entries[slot] : refill(vpn, slot);
+        long required = PTE_PRESENT | access | (user ? PTE_USER : 0);
+        if ((entry & required) != required) throw new Trap(faultCause(access), va);
+        return (entry & FRAME_MASK) | (va & PAGE_MASK);
+    }
+
+    private long refill(long vpn, int slot) {
+        long entry = walk(vpn);
+        if ((entry & PTE_PRESENT) != 0) {
+            tags[slot] = vpn;
+            entries[slot] = entry;
+        }
+        return entry;
+    }
+
+    private long walk(long vpn) {
+        if (vpn >>> VPN_BITS != 0) return 0; // past the 30-bit address space
+        long root = csrs[InstructionSet.CSR_PTBR] & FRAME_MASK;
+        long first = readEntry(root + (vpn >>> LEVEL_BITS) * Long.BYTES);
+        if ((first & PTE_PRESENT) == 0) return 0;
+        return readEntry((first & FRAME_MASK) + (vpn & LEVEL_MASK) * Long.BYTES);
+    }
+
+    // Table reads are the MMU's, not the guest's, so they never hit a watchpoint
+    private long readEntry(long address) {
+        if (!MemoryMap.isRamAddress(address)) {
+            throw new MemoryException(String.format("Page table outside RAM: 0x%X", address));
+        }
+        return memory.peek(address, Long.BYTES);
+    }
+
+    private static int faultCause(long access) {
+        if (access == PTE_READ) return InstructionSet.CAUSE_LOAD_FAULT;
+        if (access == PTE_WRITE) return InstructionSet.CAUSE_STORE_FAULT;
+        return InstructionSet.CAUSE_FETCH_FAULT;
+    }
+
+    /*—— Scalar accesses —————————*/
+    // 1, 4 or 8 bytes, sign-extended like Memory's sized reads
+
+    long load(long va, int size, boolean user) {
+        long pa = translate(va, PTE_READ, user);
+        long second = secondPage(va, size, pa, PTE_READ, user);
+        if (second < 0) {
+            return switch (size) {
+                case Long.BYTES -> memory.readLong(pa);
+                case Integer.BYTES -> memory.readInt(pa);
+                default -> memory.readByte(pa);
+            };
+        }
+        int first = firstPart(va);
+        long value = 0;
+        for (int i = size - 1; i >= 0; i--) {
+            value = value << 8 | (memory.readByte(i < first ? pa + i : second + i - first) & 0xFF);
+        }
+        return size == Integer.BYTES ? (int) value : value;
+    }
+
+    void store(long va, int size, long value, boolean user) {
+        long pa = translate(va, PTE_WRITE, user);
+        long second = secondPage(va, size, pa, PTE_WRITE, user);
+        if (second < 0) {
+            switch (size) {
+                case Long.BYTES -> memory.writeLong(pa, value);
+                case Integer.BYTES -> memory.writeInt(pa, (int) value);
+                default -> memory.writeByte(pa, (byte) value);
+            }
+            return;
+        }
+        int first = firstPart(va);
+        for (int i = 0; i < size; i++) {
+            memory.writeByte(i < first ? pa + i : second + i - first, (byte) (value >>> 8 * i));
+        }
+    }
+
+    /** The physical address of an 8-byte CAS or FADD target, which must be readable and writable */
+    long atomic(long va, boolean user) {
+        long pa = translate(va, PTE_READ, user);
+        translate(va, PTE_WRITE, user);
+        int first = firstPart(va);
+        if (first < Long.BYTES) {
+            long second = translate(va + first, PTE_READ, user);
+            translate(va + first, PTE_WRITE, user);
+            if (second != pa + first) {
+                throw new MemoryException(String.format("Atomic access across unrelated pages: 0x%X", va));
+            }
+        }
+        return pa;
+    }
+
+    /**
+     * Checks the page an access crossing out of va's page continues into and
+     * returns its physical address, or -1 if the access stays in one page or
+     * continues contiguously, so a single physical access does.
+     */
+    private long secondPage(long va, int size, long pa, long access, boolean user) {
+        int first = firstPart(va);
+        if (first >= size) return -1;
+        long second = translate(va + first, access, user);
+        return second == pa + first ? -1 : second;
+    }
+
+    // Bytes from va to the end of its page
+    private static int firstPart(long va) {
+        return (int) (PAGE_SIZE - (va & PAGE_MASK));
+    }
+
+    /*—— Block operations —————————*/
+    // Split where either range crosses a page, each piece a block operation on physical memory
+
+    void copy(long dest, long src, long length, boolean user) {
+        int size = blockSize(length);
+        if (size == 0) return;
+        checkRange(src, size, PTE_READ, user);
+        checkRange(dest, size, PTE_WRITE, user);
+        if (dest <= src || dest - src >= size) {
+            for (int done = 0; done < size; ) {
+                int part = Math.min(size - done, Math.min(firstPart(src + done), firstPart(dest + done)));
+                memory.copyBlock(translate(dest + done, PTE_WRITE, user), translate(src + done, PTE_READ, user), part);
+                done += part;
+            }
+        } else {
+            // dest lies inside the source, so copy from the end down
+            for (int left = size; left > 0; ) {
+                int part = Math.min(left, Math.min(lastPart(src + left), lastPart(dest + left)));
+                left -= part;
+                memory.copyBlock(translate(dest + left, PTE_WRITE, user), translate(src + left, PTE_READ, user), part);
+            }
+        }
+    }
+
+    void fill(long dest, long length, byte value, boolean user) {
+        int size = blockSize(length);
+        if (size == 0) return;
+        checkRange(dest, size, PTE_WRITE, user);
+        for (int done = 0; done < size; ) {
+            int part = Math.min(size - done, firstPart(dest + done));
+            memory.fillBlock(translate(dest + done, PTE_WRITE, user), part, value);
+            done += part;
+        }
+    }
+
+    long compare(long first, long second, long length, boolean user) {
+        int size = blockSize(length);
+        if (size == 0) return 0;
+        checkRange(first, size, PTE_READ, user);
+        checkRange(second, size, PTE_READ, user);
+        for (int done = 0; done < size; ) {
+            int part = Math.min(size - done, Math.min(firstPart(first + done), firstPart(second + done)));
+            long result = memory.compareBlocks(translate(first + done, PTE_READ, user),
+                    translate(second + done, PTE_READ, user), part);
+            if (result != 0) return result;
+            done += part;
+        }
+        return 0;
+    }
+
+    // Faults at the lowest address in the range that isn't accessible
+    private void checkRange(long va, int size, long access, boolean user) {
+        translate(va, access, user); // past the address space faults here, so the end can't overflow
+        for (long page = (va | PAGE_MASK) + 1; page < va + size; page += PAGE_SIZE) {
+            translate(page, access, user);
+        }
+    }
+
+    // Bytes from the start of the page holding end - 1 up to end
+    private static int lastPart(long end) {
+        return (int) (((end - 1) & PAGE_MASK) + 1);
+    }
+
+    private static int blockSize(long length) {
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new MemoryException("Invalid block length: " + length);
+        }
+        return (int) length;
+    }
+}
@@ -0,0 +1,12 @@
+package org.lpc.cpu;
+
+/**
+ * Why a call to {@link Cpu#run(long)} returned.
+ */
+public enum RunState {
+    HALTED,           // HLT or a run of NOPs, the program is done
+    BUDGET_EXHAUSTED, // instruction budget used up, call run again to continue
+    BREAKPOINT,       // stopped at a breakpoint before executing it
+    FAULT,            // an instruction threw, see Cpu.getLastFault()
+    WAITING_FOR_IO    // the guest is idle until a device raises an event
+}
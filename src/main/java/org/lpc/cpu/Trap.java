@@ -0,0 +1,36 @@
+package org.lpc.cpu;
+
+/**
+ * Thrown while paging is on by an instruction that must not execute: a page
+ * fault or a privileged instruction in user mode. The core takes it like an
+ * interrupt, see the Paging section of {@link InstructionSet}.
+ */
+final class Trap extends RuntimeException {
+    private final int cause;
+    private final long address;
+
+    Trap(int cause, long address) {
+        super(describe(cause, address), null, false, false);
+        this.cause = cause;
+        this.address = address;
+    }
+
+    /** One of the InstructionSet.CAUSE_ codes */
+    int cause() {
+        return cause;
+    }
+
+    /** The virtual address that faulted, the PC for CAUSE_PRIVILEGED */
+    long address() {
+        return address;
+    }
+
+    private static String describe(int cause, long address) {
+        return switch (cause) {
+            case InstructionSet.CAUSE_FETCH_FAULT -> String.format("Page fault fetching from 0x%X", address);
+            case InstructionSet.CAUSE_LOAD_FAULT -> String.format("Page fault loading from 0x%X", address);
+            case InstructionSet.CAUSE_STORE_FAULT -> String.format("Page fault storing to 0x%X", address);
+            default -> String.format("Privileged instruction in user mode at 0x%X", address);
+        };
+    }
+}
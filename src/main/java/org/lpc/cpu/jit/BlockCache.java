@@ -0,0 +1,80 @@
+package org.lpc.cpu.jit;
+
+import org.lpc.cpu.InstructionCache;
+import org.lpc.memory.Memory;
+import org.lpc.memory.MemoryMap;
+
+import java.util.Arrays;
+
+/**
+ * Translated blocks indexed by entry PC, organised per memory page like the
+ * {@link InstructionCache}. A block is only compiled once its entry has been
+ * reached {@link #COMPILE_THRESHOLD} times; writes to a page drop every block
+ * on it together with the entry counters.
+ */
+public final class BlockCache {
+    public static final int COMPILE_THRESHOLD = 16;
+
+    private static final int SLOTS_PER_PAGE = (int) (MemoryMap.PAGE_SIZE / Integer.BYTES);
+    private static final int NOT_COMPILABLE = -1;
+
+    private final BlockCompiler compiler;
+    private final TranslatedBlock[][] blocks = new TranslatedBlock[MemoryMap.PAGE_COUNT][];
+    private final int[][] entryCounts = new int[MemoryMap.PAGE_COUNT][];
+
+    public BlockCache(Memory memory, InstructionCache instructionCache, int maxNopRun) {
+        this(memory, instructionCache, maxNopRun, false);
+    }
+
+    /** trailed: blocks record into an ExecutionTrail as they run, see BlockCompiler */
+    public BlockCache(Memory memory, InstructionCache instructionCache, int maxNopRun, boolean trailed) {
+        this.compiler = new BlockCompiler(instructionCache, maxNopRun, trailed);
+        memory.addPageWriteListener(this::invalidatePage);
+    }
+
+    /**
+     * Returns the translated block at pc, compiling it if it just became hot.
+     * @return the block, or null if pc should be interpreted
+     */
+    public TranslatedBlock lookup(long pc) {
+        if ((pc & 3) != 0 || Long.compareUnsigned(pc, MemoryMap.TOTAL_SIZE) >= 0 || MemoryMap.isMmioAddress(pc)) {
+            return null;
+        }
+        int pageIndex = MemoryMap.pageOf(pc);
+        int slot = (int) (pc & MemoryMap.PAGE_MASK) >>> 2;
+
+        TranslatedBlock[] page = blocks[pageIndex];
+        if (page != null && page[slot] != null) {
+            return page[slot];
+        }
+
+        int[] counts = entryCounts[pageIndex];
+        if (counts == null) {
+            counts = entryCounts[pageIndex] = new int[SLOTS_PER_PAGE];
+        }
+        if (counts[slot] == NOT_COMPILABLE || ++counts[slot] < COMPILE_THRESHOLD) {
+            return null;
+        }
+
+        TranslatedBlock block = compiler.compile(pc);
+        if (block == null) {
+            counts[slot] = NOT_COMPILABLE;
+            return null;
+        }
+        if (blocks[pageIndex] == null) {
+            blocks[pageIndex] = new TranslatedBlock[SLOTS_PER_PAGE];
+        }
+        blocks[pageIndex][slot] = block;
+        return block;
+    }
+
+    public void invalidatePage(int page) {
+        blocks[page] = null;
+        entryCounts[page] = null;
+    }
+
+    public void invalidateAll() {
+        Arrays.fill(blocks, null);
+        Arrays.fill(entryCounts, null);
+    }
+}
@@ -0,0 +1,387 @@
+package org.lpc.cpu.jit;
+
+import org.lpc.cpu.InstructionCache;
+import org.lpc.cpu.MicroOp;
+import org.lpc.memory.MemoryMap;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+
+/**
+ * Translates guest basic blocks into hidden JVM classes.
+ * .
+ * A block starts at a jump target and runs up to and including the first
+ * JMP/JZ/JNZ/JPP/JPN/JAL/HLT. It is also cut at page boundaries (so page
+ * invalidation covers it exactly), at {@link #MAX_BLOCK_LENGTH}, before an
+ * illegal instruction and before a NOP run would reach the CPU's idle limit.
+ * .
+ * The emitted method works directly on the long[] register file and calls
+ * into Memory for loads and stores, so the JIT shares all memory semantics
+ * with the interpreter. The code is branch-free: conditional jumps call
+ * {@link JitRuntime}, which HotSpot inlines.
+ * .
+ * A compiler for a trail emits execute(registers, memory, trail) instead,
+ * which saves what each instruction is about to overwrite into the
+ * ExecutionTrail before running it: the old value of the register it
+ * writes straight into the trail's array, and for a store the old memory.
+ * The entries go from trail.nextSlot() on; the CPU adds the PCs and
+ * instructions of the ones that ran afterwards, see ExecutionTrail.commit.
+ */
+public final class BlockCompiler {
+    public static final int MAX_BLOCK_LENGTH = 256;
+
+    private static final String MEMORY = "org/lpc/memory/Memory";
+    private static final String BLOCK_CLASS = "org/lpc/cpu/jit/Block";
+    private static final String TRAIL = "org/lpc/cpu/ExecutionTrail";
+    private static final String EXECUTE_DESCRIPTOR = "([JL" + MEMORY + ";)J";
+    private static final String TRAILED_DESCRIPTOR = "([JL" + MEMORY + ";L" + TRAIL + ";)J";
+
+    // Locals: 0 = this, 1 = long[] registers, 2 = Memory, 3 = index of the instruction that may fault;
+    // for a trail 3 = ExecutionTrail, 4 = that index, 5 = the slot of the first instruction, 6 = the old registers
+    private static final int INDEX = 3, TRAILED_INDEX = 4, FIRST_SLOT = 5, OLD_REGISTERS = 6;
+    // JVM opcodes used by the emitter
+    private static final int ICONST_0 = 0x03, ICONST_M1 = 0x02, BIPUSH = 0x10, SIPUSH = 0x11, LDC2_W = 0x14;
+    private static final int ILOAD = 0x15, ALOAD = 0x19, ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, ALOAD_2 = 0x2c, ALOAD_3 = 0x2d;
+    private static final int ISTORE = 0x36, ASTORE = 0x3a, LALOAD = 0x2f, LASTORE = 0x50;
+    private static final int IADD = 0x60, LADD = 0x61, LSUB = 0x65, LMUL = 0x69, LDIV = 0x6d, LREM = 0x71, LNEG = 0x75;
+    private static final int LSHL = 0x79, LSHR = 0x7b, LUSHR = 0x7d, LAND = 0x7f, LOR = 0x81, LXOR = 0x83;
+    private static final int I2L = 0x85, L2I = 0x88, I2B = 0x91;
+    private static final int LRETURN = 0xad, RETURN = 0xb1, ATHROW = 0xbf;
+    private static final int INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8;
+
+    private final InstructionCache instructionCache;
+    private final int maxNopRun;
+    private final boolean trailed;
+    private final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    public BlockCompiler(InstructionCache instructionCache, int maxNopRun) {
+        this(instructionCache, maxNopRun, false);
+    }
+
+    public BlockCompiler(InstructionCache instructionCache, int maxNopRun, boolean trailed) {
+        this.instructionCache = instructionCache;
+        this.maxNopRun = maxNopRun;
+        this.trailed = trailed;
+    }
+
+    /**
+     * Compiles the block starting at pc.
+     * @return the translated block, or null if nothing at pc can be compiled
+     */
+    public TranslatedBlock compile(long pc) {
+        long[] decoded = scan(pc);
+        if (decoded.length == 0) return null;
+
+        int leadingNops = 0;
+        while (leadingNops < decoded.length && InstructionCache.op(decoded[leadingNops]) == MicroOp.NOP) {
+            leadingNops++;
+        }
+        int trailingNops = 0;
+        while (trailingNops < decoded.length
+                && InstructionCache.op(decoded[decoded.length - 1 - trailingNops]) == MicroOp.NOP) {
+            trailingNops++;
+        }
+        int lastOp = InstructionCache.op(decoded[decoded.length - 1]);
+        boolean endsWithHalt = lastOp == MicroOp.HLT;
+        boolean endsWithJump = MicroOp.isJump(lastOp);
+        int loads = 0;
+        int stores = 0;
+        for (long d : decoded) {
+            int op = InstructionCache.op(d);
+            if (MicroOp.isLoad(op)) loads++;
+            if (MicroOp.isStore(op)) stores++;
+        }
+
+        CompiledBlock code = define(emit(pc, decoded));
+        return new TranslatedBlock(pc, decoded.length, leadingNops, trailingNops, endsWithHalt, endsWithJump,
+                loads, stores, decoded, code);
+    }
+
+    private long[] scan(long pc) {
+        long[] buffer = new long[MAX_BLOCK_LENGTH];
+        int length = 0;
+        int nopRun = 0;
+        int page = MemoryMap.pageOf(pc);
+
+        for (long addr = pc; length < MAX_BLOCK_LENGTH && MemoryMap.pageOf(addr) == page; addr += 4) {
+            long decoded = instructionCache.fetchPlain(addr);
+            int op = InstructionCache.op(decoded);
+            if (op > MicroOp.LDI) break; // ILLEGAL, the multi-core, wait and interrupt operations and block operations stay interpreted
+
+            nopRun = op == MicroOp.NOP ? nopRun + 1 : 0;
+            if (nopRun >= maxNopRun) break; // leave the idle limit to the interpreter
+
+            buffer[length++] = decoded;
+            if (MicroOp.endsBlock(op)) break;
+        }
+        return Arrays.copyOf(buffer, length);
+    }
+
+    private CompiledBlock define(byte[] classBytes) {
+        try {
+            MethodHandles.Lookup hidden = lookup.defineHiddenClass(classBytes, true);
+            return (CompiledBlock) hidden.findConstructor(hidden.lookupClass(),
+                    MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to define compiled block", e);
+        }
+    }
+
+    /*—— Code generation —————————*/
+
+    private byte[] emit(long startPc, long[] decoded) {
+        ClassFileWriter cw = new ClassFileWriter();
+        Code code = new Code(cw);
+        int index = trailed ? TRAILED_INDEX : INDEX;
+
+        code.op(ICONST_0);
+        code.local(ISTORE, index);
+        if (trailed) {
+            code.op(ALOAD_3);
+            code.invoke(INVOKEVIRTUAL, TRAIL, "nextSlot", "()I");
+            code.local(ISTORE, FIRST_SLOT);
+            code.op(ALOAD_3);
+            code.invoke(INVOKEVIRTUAL, TRAIL, "oldRegisters", "()[J");
+            code.local(ASTORE, OLD_REGISTERS);
+        }
+        int tryStart = code.size();
+        boolean mayFault = false;
+
+        long nextPc = startPc;
+        boolean returned = false;
+        for (int i = 0; i < decoded.length; i++) {
+            long d = decoded[i];
+            int op = InstructionCache.op(d);
+            int dest = InstructionCache.dest(d);
+            int src1 = InstructionCache.src(d);
+            int src2 = InstructionCache.src2(d);
+            if (trailed) code.record(i, d);
+            nextPc += 4;
+
+            if (canFault(op)) {
+                code.pushInt(i);
+                code.local(ISTORE, index);
+                mayFault = true;
+            }
+
+            switch (op) {
+                case MicroOp.NOP -> {}
+                case MicroOp.HLT -> { code.pushLong(nextPc); code.op(LRETURN); returned = true; }
+                case MicroOp.MOV -> { code.beginSet(dest); code.get(src1); code.op(LASTORE); }
+                case MicroOp.NOT -> { code.beginSet(dest); code.get(src1); code.op(ICONST_M1); code.op(I2L); code.op(LXOR); code.op(LASTORE); }
+                case MicroOp.NEG -> { code.beginSet(dest); code.get(src1); code.op(LNEG); code.op(LASTORE); }
+                case MicroOp.ADD -> code.binary(dest, src1, src2, LADD);
+                case MicroOp.SUB -> code.binary(dest, src1, src2, LSUB);
+                case MicroOp.MUL -> code.binary(dest, src1, src2, LMUL);
+                case MicroOp.DIV -> code.binary(dest, src1, src2, LDIV);
+                case MicroOp.AND -> code.binary(dest, src1, src2, LAND);
+                case MicroOp.OR  -> code.binary(dest, src1, src2, LOR);
+                case MicroOp.XOR -> code.binary(dest, src1, src2, LXOR);
+                case MicroOp.SHL -> code.shift(dest, src1, src2, LSHL);
+                case MicroOp.SHR -> code.shift(dest, src1, src2, LUSHR);
+                case MicroOp.SAR -> code.shift(dest, src1, src2, LSHR);
+                case MicroOp.MOD -> code.binary(dest, src1, src2, LREM);
+                case MicroOp.JMP -> { code.get(dest); code.op(LRETURN); returned = true; }
+                case MicroOp.JZ  -> { code.conditional(dest, src1, nextPc, "jz"); returned = true; }
+                case MicroOp.JNZ -> { code.conditional(dest, src1, nextPc, "jnz"); returned = true; }
+                case MicroOp.JPP -> { code.conditional(dest, src1, nextPc, "jpp"); returned = true; }
+                case MicroOp.JPN -> { code.conditional(dest, src1, nextPc, "jpn"); returned = true; }
+                case MicroOp.JAL -> {
+                    code.beginSet(src1); code.pushLong(nextPc); code.op(LASTORE);
+                    code.get(dest); code.op(LRETURN);
+                    returned = true;
+                }
+                case MicroOp.LD -> { code.beginSet(dest); code.load(src1, "readLong", "(J)J"); code.op(LASTORE); }
+                case MicroOp.LB -> { code.beginSet(dest); code.load(src1, "readByte", "(J)B"); code.op(I2L); code.op(LASTORE); }
+                case MicroOp.LI -> { code.beginSet(dest); code.load(src1, "readInt", "(J)I"); code.op(I2L); code.op(LASTORE); }
+                case MicroOp.ST -> code.store(dest, src1, "writeLong", "(JJ)V");
+                case MicroOp.SB -> { code.beginStore(dest, src1); code.op(L2I); code.op(I2B); code.invoke(INVOKEVIRTUAL, MEMORY, "writeByte", "(JB)V"); }
+                case MicroOp.SI -> { code.beginStore(dest, src1); code.op(L2I); code.invoke(INVOKEVIRTUAL, MEMORY, "writeInt", "(JI)V"); }
+                case MicroOp.LDI -> { code.beginSet(dest); code.pushInt(InstructionCache.imm(d)); code.op(I2L); code.op(LASTORE); }
+                default -> throw new IllegalStateException("Cannot compile operation " + op);
+            }
+        }
+        if (!returned) {
+            // Block was cut short, fall through to the next instruction
+            code.pushLong(nextPc);
+            code.op(LRETURN);
+        }
+
+        int[] handler = null;
+        if (mayFault) {
+            int tryEnd = code.size();
+            code.local(ILOAD, index);
+            code.invoke(INVOKESTATIC, JitRuntime.INTERNAL_NAME, "fault",
+                    "(Ljava/lang/Throwable;I)Lorg/lpc/cpu/jit/BlockFault;");
+            code.op(ATHROW);
+            handler = new int[]{tryStart, tryEnd, tryEnd};
+        }
+
+        cw.addMethod(ClassFileWriter.ACC_PUBLIC, "<init>", "()V", 1, 1, constructor(cw), null);
+        if (trailed) {
+            cw.addMethod(ClassFileWriter.ACC_PUBLIC, "execute", TRAILED_DESCRIPTOR, 8, 7, code.toByteArray(), handler);
+        } else {
+            cw.addMethod(ClassFileWriter.ACC_PUBLIC, "execute", EXECUTE_DESCRIPTOR, 8, 4, code.toByteArray(), handler);
+        }
+        return cw.toByteArray(BLOCK_CLASS, "java/lang/Object", "org/lpc/cpu/jit/CompiledBlock");
+    }
+
+    private static byte[] constructor(ClassFileWriter cw) {
+        Code code = new Code(cw);
+        code.op(ALOAD_0);
+        code.invoke(INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+        code.op(RETURN);
+        return code.toByteArray();
+    }
+
+    private static boolean canFault(int op) {
+        return switch (op) {
+            case MicroOp.LD, MicroOp.ST, MicroOp.LB, MicroOp.SB, MicroOp.LI, MicroOp.SI,
+                 MicroOp.DIV, MicroOp.MOD -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Bytecode buffer with helpers for the register-file access patterns.
+     */
+    private static final class Code {
+        private final ClassFileWriter cw;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        Code(ClassFileWriter cw) {
+            this.cw = cw;
+        }
+
+        void op(int opcode) {
+            bytes.write(opcode);
+        }
+
+        void u2(int value) {
+            bytes.write(value >>> 8);
+            bytes.write(value);
+        }
+
+        int size() {
+            return bytes.size();
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+
+        void pushInt(int value) {
+            if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(BIPUSH);
+                bytes.write(value);
+            } else {
+                op(SIPUSH);
+                u2(value & 0xFFFF);
+            }
+        }
+
+        void pushLong(long value) {
+            op(LDC2_W);
+            u2(cw.longConstant(value));
+        }
+
+        /** ILOAD, ISTORE, ALOAD or ASTORE of a local */
+        void local(int opcode, int index) {
+            op(opcode);
+            bytes.write(index);
+        }
+
+        void invoke(int opcode, String owner, String name, String descriptor) {
+            op(opcode);
+            u2(cw.methodRef(owner, name, descriptor));
+        }
+
+        /** registers[reg] on the stack */
+        void get(int reg) {
+            op(ALOAD_1);
+            pushInt(reg);
+            op(LALOAD);
+        }
+
+        /** registers, reg on the stack, ready for a value and LASTORE */
+        void beginSet(int reg) {
+            op(ALOAD_1);
+            pushInt(reg);
+        }
+
+        void binary(int dest, int src1, int src2, int opcode) {
+            beginSet(dest);
+            get(src1);
+            get(src2);
+            op(opcode);
+            op(LASTORE);
+        }
+
+        void shift(int dest, int src1, int src2, int opcode) {
+            beginSet(dest);
+            get(src1);
+            get(src2);
+            op(L2I);
+            op(opcode);
+            op(LASTORE);
+        }
+
+        void conditional(int dest, int src, long nextPc, String helper) {
+            get(src);
+            get(dest);
+            pushLong(nextPc);
+            invoke(INVOKESTATIC, JitRuntime.INTERNAL_NAME, helper, "(JJJ)J");
+            op(LRETURN);
+        }
+
+        void load(int addressReg, String method, String descriptor) {
+            op(ALOAD_2);
+            get(addressReg);
+            invoke(INVOKEVIRTUAL, MEMORY, method, descriptor);
+        }
+
+        void beginStore(int addressReg, int valueReg) {
+            op(ALOAD_2);
+            get(addressReg);
+            get(valueReg);
+        }
+
+        void store(int addressReg, int valueReg, String method, String descriptor) {
+            beginStore(addressReg, valueReg);
+            invoke(INVOKEVIRTUAL, MEMORY, method, descriptor);
+        }
+
+        /** Saves what the i-th instruction of the block is about to overwrite into the trail */
+        void record(int i, long decoded) {
+            int register = InstructionCache.writtenRegister(decoded);
+            if (register >= 0) {
+                local(ALOAD, OLD_REGISTERS);
+                slot(i);
+                get(register);
+                op(LASTORE);
+            }
+
+            int size = switch (InstructionCache.op(decoded)) {
+                case MicroOp.ST -> Long.BYTES;
+                case MicroOp.SI -> Integer.BYTES;
+                case MicroOp.SB -> Byte.BYTES;
+                default -> 0;
+            };
+            if (size == 0) return;
+            op(ALOAD_3);
+            slot(i);
+            op(ALOAD_2);
+            get(InstructionCache.dest(decoded));
+            pushInt(size);
+            invoke(INVOKEVIRTUAL, TRAIL, "recordStore", "(IL" + MEMORY + ";JI)V");
+        }
+
+        private void slot(int i) {
+            local(ILOAD, FIRST_SLOT);
+            pushInt(i);
+            op(IADD);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package org.lpc.cpu.jit;
+
+/**
+ * Thrown by compiled blocks when a guest instruction faults, carrying the index
+ * of that instruction so the CPU can report the same PC as the interpreter would.
+ */
+public class BlockFault extends RuntimeException {
+    private final int instructionIndex;
+
+    public BlockFault(Throwable cause, int instructionIndex) {
+        super(cause.getMessage(), cause, false, false);
+        this.instructionIndex = instructionIndex;
+    }
+
+    public int getInstructionIndex() {
+        return instructionIndex;
+    }
+
+    public RuntimeException unwrap() {
+        if (getCause() instanceof RuntimeException e) return e;
+        if (getCause() instanceof Error e) throw e;
+        return new RuntimeException(getCause());
+    }
+}
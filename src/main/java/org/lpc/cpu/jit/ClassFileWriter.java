@@ -0,0 +1,174 @@
+package org.lpc.cpu.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal class file writer, just enough for the straight-line methods the
+ * block compiler emits: a constant pool with UTF-8, class, method and long
+ * entries, and methods with a Code attribute and an optional exception table.
+ * .
+ * Classes are written as version 49 so methods with an exception handler
+ * don't need a StackMapTable.
+ */
+final class ClassFileWriter {
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int MAJOR_VERSION = 49;
+
+    private static final int TAG_UTF8 = 1;
+    private static final int TAG_LONG = 5;
+    private static final int TAG_CLASS = 7;
+    private static final int TAG_METHODREF = 10;
+    private static final int TAG_NAME_AND_TYPE = 12;
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    private final List<byte[]> methods = new ArrayList<>();
+
+    /*—— Constant pool —————————*/
+
+    int utf8(String value) {
+        return poolIndex.computeIfAbsent("U" + value, k -> entry(1, out -> {
+            out.writeByte(TAG_UTF8);
+            out.writeUTF(value);
+        }));
+    }
+
+    int classRef(String internalName) {
+        int name = utf8(internalName);
+        return poolIndex.computeIfAbsent("C" + internalName, k -> entry(1, out -> {
+            out.writeByte(TAG_CLASS);
+            out.writeShort(name);
+        }));
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        int nameAndType = poolIndex.computeIfAbsent("N" + name + descriptor, k -> entry(1, out -> {
+            out.writeByte(TAG_NAME_AND_TYPE);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+        }));
+        return poolIndex.computeIfAbsent("M" + owner + "." + name + descriptor, k -> entry(1, out -> {
+            out.writeByte(TAG_METHODREF);
+            out.writeShort(ownerIndex);
+            out.writeShort(nameAndType);
+        }));
+    }
+
+    int longConstant(long value) {
+        // Long entries take up two constant pool slots
+        return poolIndex.computeIfAbsent("J" + value, k -> entry(2, out -> {
+            out.writeByte(TAG_LONG);
+            out.writeLong(value);
+        }));
+    }
+
+    private int entry(int slots, PoolWriter writer) {
+        try {
+            writer.write(pool);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        int index = poolCount;
+        poolCount += slots;
+        if (poolCount > 0xFFFF) throw new IllegalStateException("Constant pool overflow");
+        return index;
+    }
+
+    /*—— Methods —————————*/
+
+    /**
+     * Adds a method with a Code attribute.
+     * @param handler exception handler covering [handler[0], handler[1]) with target handler[2]
+     *                catching any Throwable, or null for none
+     */
+    void addMethod(int access, String name, String descriptor, int maxStack, int maxLocals,
+                   byte[] code, int[] handler) {
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        int codeIndex = utf8("Code");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeShort(access);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+            out.writeShort(1); // attributes: Code
+
+            int exceptionTableLength = handler == null ? 0 : 1;
+            out.writeShort(codeIndex);
+            out.writeInt(2 + 2 + 4 + code.length + 2 + 8 * exceptionTableLength + 2);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(exceptionTableLength);
+            if (handler != null) {
+                out.writeShort(handler[0]);
+                out.writeShort(handler[1]);
+                out.writeShort(handler[2]);
+                out.writeShort(0); // catch any
+            }
+            out.writeShort(0); // Code attributes
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        methods.add(bytes.toByteArray());
+    }
+
+    byte[] toByteArray(String thisClass, String superClass, String... interfaces) {
+        int thisIndex = classRef(thisClass);
+        int superIndex = classRef(superClass);
+        int[] interfaceIndexes = new int[interfaces.length];
+        for (int i = 0; i < interfaces.length; i++) {
+            interfaceIndexes[i] = classRef(interfaces[i]);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeShort(0);
+            out.writeShort(MAJOR_VERSION);
+            out.writeShort(poolCount);
+            pool.flush();
+            poolBytes.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisIndex);
+            out.writeShort(superIndex);
+            out.writeShort(interfaceIndexes.length);
+            for (int index : interfaceIndexes) {
+                out.writeShort(index);
+            }
+            out.writeShort(0); // fields
+            out.writeShort(methods.size());
+            for (byte[] method : methods) {
+                out.write(method);
+            }
+            out.writeShort(0); // class attributes
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @FunctionalInterface
+    private interface PoolWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+}
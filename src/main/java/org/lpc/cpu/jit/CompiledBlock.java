@@ -0,0 +1,24 @@
+package org.lpc.cpu.jit;
+
+import org.lpc.cpu.ExecutionTrail;
+import org.lpc.memory.Memory;
+
+/**
+ * A guest basic block translated to JVM bytecode.
+ * Implemented by the hidden classes emitted by {@link BlockCompiler}.
+ */
+public interface CompiledBlock {
+    /**
+     * Executes the block against the register file.
+     * @return the PC of the next instruction to execute
+     */
+    long execute(long[] registers, Memory memory);
+
+    /**
+     * Like execute, recording each instruction into the trail first; only
+     * blocks compiled for a trail implement it, see BlockCompiler.
+     */
+    default long execute(long[] registers, Memory memory, ExecutionTrail trail) {
+        throw new UnsupportedOperationException("Block not compiled for a trail");
+    }
+}
@@ -0,0 +1,32 @@
+package org.lpc.cpu.jit;
+
+/**
+ * Static helpers called from compiled blocks.
+ * Keeping conditionals in here lets the emitted code stay branch-free,
+ * HotSpot inlines them at the call site.
+ */
+final class JitRuntime {
+    static final String INTERNAL_NAME = "org/lpc/cpu/jit/JitRuntime";
+
+    static long jz(long value, long target, long next) {
+        return value == 0 ? target : next;
+    }
+
+    static long jnz(long value, long target, long next) {
+        return value != 0 ? target : next;
+    }
+
+    static long jpp(long value, long target, long next) {
+        return value > 0 ? target : next;
+    }
+
+    static long jpn(long value, long target, long next) {
+        return value < 0 ? target : next;
+    }
+
+    static BlockFault fault(Throwable cause, int instructionIndex) {
+        return new BlockFault(cause, instructionIndex);
+    }
+
+    private JitRuntime() {}
+}
@@ -0,0 +1,28 @@
+package org.lpc.cpu.jit;
+
+/**
+ * A compiled basic block plus the metadata the CPU needs to keep
+ * its bookkeeping (NOP run length, halting) identical to the interpreter.
+ *
+ * @param startPc      guest address of the first instruction
+ * @param length       number of guest instructions in the block
+ * @param leadingNops  consecutive NOPs at the start of the block
+ * @param trailingNops consecutive NOPs at the end of the block
+ * @param endsWithHalt whether the last instruction is HLT
+ * @param endsWithJump whether the last instruction is a jump
+ * @param loads        load instructions in the block
+ * @param stores       store instructions in the block
+ * @param instructions the decoded plain instructions, for the trail
+ */
+public record TranslatedBlock(long startPc, int length, int leadingNops, int trailingNops,
+                              boolean endsWithHalt, boolean endsWithJump, int loads, int stores,
+                              long[] instructions, CompiledBlock code) {
+    public boolean isAllNops() {
+        return leadingNops == length;
+    }
+
+    /** Address after the last instruction, where a jump that isn't taken goes */
+    public long fallThroughPc() {
+        return startPc + 4L * length;
+    }
+}
@@ -0,0 +1,20 @@
+package org.lpc.cpu.profile;
+
+import org.lpc.memory.MemoryMap;
+
+/** Address space regions memory accesses are attributed to */
+public enum MemoryRegion {
+    ROM,
+    RAM,
+    MMIO,
+    FRAMEBUFFER,
+    UNMAPPED; // the access faulted
+
+    public static MemoryRegion of(long address) {
+        if (MemoryMap.isRomAddress(address)) return ROM;
+        if (MemoryMap.isRamAddress(address)) return RAM;
+        if (MemoryMap.isMmioAddress(address)) return MMIO;
+        if (MemoryMap.isFramebufferAddress(address)) return FRAMEBUFFER;
+        return UNMAPPED;
+    }
+}
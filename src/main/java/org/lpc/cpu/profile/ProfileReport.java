@@ -0,0 +1,207 @@
+package org.lpc.cpu.profile;
+
+import com.google.gson.GsonBuilder;
+import org.lpc.assembler.SymbolTable;
+import org.lpc.cpu.InstructionInfo;
+import org.lpc.cpu.MicroOp;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.ToLongFunction;
+
+/**
+ * Turns a {@link Profiler} into a text report, JSON and a collapsed-stack
+ * file (one "frame;frame;frame count" line per calling context, the input
+ * format of flamegraph.pl and speedscope).
+ * .
+ * PCs are named after the nearest assembler label at or before them, e.g.
+ * "loop_12+0x8"; without a symbol table, or below the first label (ROM), they
+ * stay hex.
+ */
+public final class ProfileReport {
+    private static final int TEXT_TOP_ENTRIES = 25;
+    private static final String[] OP_NAMES = new String[256];
+
+    static {
+        InstructionInfo.OPCODE_NAMES.forEach((opcode, name) -> OP_NAMES[MicroOp.fromOpcode(opcode)] = name);
+        OP_NAMES[MicroOp.ILLEGAL] = "ILLEGAL";
+    }
+
+    private final Profiler profiler;
+    private final NavigableMap<Long, String> labels = new TreeMap<>();
+
+    public ProfileReport(Profiler profiler, @Nullable SymbolTable symbols) {
+        this.profiler = profiler;
+        if (symbols != null) {
+            // Several labels on one address: keep the alphabetically first so reports are stable
+            symbols.getSymbols().forEach((name, address) -> labels.merge(address, name,
+                    (a, b) -> a.compareTo(b) <= 0 ? a : b));
+        }
+    }
+
+    /** Writes prefix.txt, prefix.json and prefix.folded */
+    public void write(Path prefix) throws IOException {
+        Files.writeString(Path.of(prefix + ".txt"), toText());
+        Files.writeString(Path.of(prefix + ".json"), toJson());
+        Files.writeString(Path.of(prefix + ".folded"), toCollapsedStacks());
+    }
+
+    public String describe(long pc) {
+        Map.Entry<Long, String> label = labels.floorEntry(pc);
+        if (label == null) return String.format("0x%X", pc);
+        long offset = pc - label.getKey();
+        return offset == 0 ? label.getValue() : String.format("%s+0x%X", label.getValue(), offset);
+    }
+
+    /*—— Text —————————*/
+
+    public String toText() {
+        long total = profiler.getInstructions();
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Instructions retired: %d%n", total));
+
+        sb.append(String.format("%nBy opcode:%n"));
+        for (OpEntry entry : opcodes()) {
+            sb.append(String.format("  %-8s %14d %6.2f%%%n", entry.name(), entry.count(), percent(entry.count(), total)));
+        }
+
+        sb.append(String.format("%nMemory accesses:%n  %-12s %14s %14s%n", "region", "loads", "stores"));
+        for (MemoryEntry entry : memory()) {
+            sb.append(String.format("  %-12s %14d %14d%n", entry.region(), entry.loads(), entry.stores()));
+        }
+
+        sb.append(String.format("%nFunctions by self instructions:%n"));
+        for (FunctionEntry entry : top(functions(), FunctionEntry::self)) {
+            sb.append(String.format("  %-32s %14d %6.2f%%%n", entry.name(), entry.self(), percent(entry.self(), total)));
+        }
+
+        sb.append(String.format("%nHottest blocks:%n  %-18s %-32s %12s %14s%n", "pc", "label", "entries", "instructions"));
+        for (BlockEntry entry : top(blocks(), BlockEntry::instructions)) {
+            sb.append(String.format("  0x%016X %-32s %12d %14d %6.2f%%%n", entry.pc(), entry.label(),
+                    entry.entries(), entry.instructions(), percent(entry.instructions(), total)));
+        }
+
+        sb.append(String.format("%nHottest instructions:%n"));
+        for (PcEntry entry : top(pcs(), PcEntry::count)) {
+            sb.append(String.format("  0x%016X %-32s %-8s %14d %6.2f%%%n", entry.pc(), entry.label(),
+                    entry.opcode(), entry.count(), percent(entry.count(), total)));
+        }
+        return sb.toString();
+    }
+
+    private static double percent(long count, long total) {
+        return total == 0 ? 0 : 100.0 * count / total;
+    }
+
+    private static <T> List<T> top(List<T> entries, ToLongFunction<T> key) {
+        return entries.stream()
+                .sorted(Comparator.comparingLong(key).reversed())
+                .limit(TEXT_TOP_ENTRIES)
+                .toList();
+    }
+
+    /*—— JSON —————————*/
+
+    public String toJson() {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("instructions", profiler.getInstructions());
+        json.put("opcodes", opcodes());
+        json.put("memory", memory());
+        json.put("functions", functions());
+        json.put("blocks", blocks());
+        json.put("pcs", pcs());
+        return new GsonBuilder().setPrettyPrinting().create().toJson(json);
+    }
+
+    /*—— Collapsed stacks —————————*/
+
+    public String toCollapsedStacks() {
+        StringBuilder sb = new StringBuilder();
+        appendStacks(profiler.getCallTree(), "", sb);
+        return sb.toString();
+    }
+
+    private void appendStacks(Profiler.CallNode node, String parentStack, StringBuilder sb) {
+        String stack = parentStack.isEmpty() ? frameName(node) : parentStack + ";" + frameName(node);
+        if (node.self > 0) {
+            sb.append(stack).append(' ').append(node.self).append('\n');
+        }
+        node.children.values().stream()
+                .sorted(Comparator.comparingLong(child -> child.entry))
+                .forEach(child -> appendStacks(child, stack, sb));
+    }
+
+    private String frameName(Profiler.CallNode node) {
+        return node.entry < 0 ? "[top]" : describe(node.entry).replace(';', '_');
+    }
+
+    /*—— Rows shared by the text and JSON output —————————*/
+
+    private record OpEntry(String name, long count) {}
+    private record MemoryEntry(MemoryRegion region, long loads, long stores) {}
+    private record FunctionEntry(String name, long entry, long self) {}
+    private record BlockEntry(long pc, String label, long entries, long instructions) {}
+    private record PcEntry(long pc, String label, String opcode, long count) {}
+
+    private List<OpEntry> opcodes() {
+        List<OpEntry> entries = new ArrayList<>();
+        for (int op = 0; op < OP_NAMES.length; op++) {
+            long count = profiler.getOpCount(op);
+            if (count > 0) entries.add(new OpEntry(OP_NAMES[op] != null ? OP_NAMES[op] : "?", count));
+        }
+        entries.sort(Comparator.comparingLong(OpEntry::count).reversed());
+        return entries;
+    }
+
+    private List<MemoryEntry> memory() {
+        List<MemoryEntry> entries = new ArrayList<>();
+        for (MemoryRegion region : MemoryRegion.values()) {
+            entries.add(new MemoryEntry(region, profiler.getLoads(region), profiler.getStores(region)));
+        }
+        return entries;
+    }
+
+    /** Self instructions per function entry, summed over every calling context */
+    private List<FunctionEntry> functions() {
+        Map<Long, Long> selfByEntry = new HashMap<>();
+        sumSelf(profiler.getCallTree(), selfByEntry);
+        List<FunctionEntry> entries = new ArrayList<>();
+        selfByEntry.forEach((entry, self) -> entries.add(new FunctionEntry(
+                entry < 0 ? "[top]" : describe(entry), entry, self)));
+        entries.sort(Comparator.comparingLong(FunctionEntry::self).reversed());
+        return entries;
+    }
+
+    private static void sumSelf(Profiler.CallNode node, Map<Long, Long> selfByEntry) {
+        if (node.self > 0) selfByEntry.merge(node.entry, node.self, Long::sum);
+        node.children.values().forEach(child -> sumSelf(child, selfByEntry));
+    }
+
+    private List<BlockEntry> blocks() {
+        List<BlockEntry> entries = new ArrayList<>();
+        new TreeMap<>(profiler.getBlocks()).forEach((pc, counts) ->
+                entries.add(new BlockEntry(pc, describe(pc), counts[0], counts[1])));
+        return entries;
+    }
+
+    private List<PcEntry> pcs() {
+        List<PcEntry> entries = new ArrayList<>();
+        profiler.forEachPc((pc, count) -> entries.add(new PcEntry(pc, describe(pc), opcodeAt(pc), count)));
+        return entries;
+    }
+
+    private String opcodeAt(long pc) {
+        String name = OP_NAMES[profiler.getOpAt(pc)];
+        return name != null ? name : "?";
+    }
+}
@@ -0,0 +1,200 @@
+package org.lpc.cpu.profile;
+
+import org.lpc.cpu.InstructionCache;
+import org.lpc.cpu.MicroOp;
+import org.lpc.memory.MemoryMap;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Execution counters filled in by the CPU while profiling is enabled, see
+ * {@link org.lpc.cpu.Cpu#setProfiler}. Turn them into output with {@link ProfileReport}.
+ * .
+ * The CPU records every instruction unfused and interpreted, so the counts
+ * match the assembled program one to one whatever the execution mode: each
+ * instruction a pseudo-instruction like LDI or PUSH expanded to counts on its own.
+ * .
+ * Basic blocks are counted as executed: from an entry PC up to the next
+ * jump or HLT. Calls are tracked on a shadow stack: JAL pushes the callee,
+ * and a JMP to a return address still on the stack pops back to its caller.
+ */
+public final class Profiler {
+    private static final int SLOTS_PER_PAGE = (int) (MemoryMap.PAGE_SIZE / Integer.BYTES);
+
+    private long instructions;
+    private final long[] opCounts = new long[256];
+    private final long[][] pcCounts = new long[MemoryMap.PAGE_COUNT][];
+    private final byte[][] pcOps = new byte[MemoryMap.PAGE_COUNT][]; // last op seen at each PC
+    private final long[] loads = new long[MemoryRegion.values().length];
+    private final long[] stores = new long[MemoryRegion.values().length];
+
+    // Block entry PC -> {entries, instructions}
+    private final Map<Long, long[]> blocks = new HashMap<>();
+    private long blockStart = -1;
+    private long blockLength;
+
+    private final CallNode root = new CallNode(null, -1);
+    private CallNode current = root;
+    private long[] returnAddresses = new long[64];
+    private int depth;
+
+    /** Called with the registers as they are before the instruction at pc runs */
+    public void record(long pc, long decoded, long[] registers) {
+        int op = InstructionCache.op(decoded);
+        instructions++;
+        opCounts[op]++;
+        countPc(pc, op);
+        current.self++;
+
+        if (blockStart < 0) blockStart = pc;
+        blockLength++;
+        if (MicroOp.endsBlock(op)) endBlock();
+
+        switch (op) {
+            case MicroOp.LD, MicroOp.LI, MicroOp.LB -> loads[regionOf(registers, InstructionCache.src(decoded))]++;
+            case MicroOp.ST, MicroOp.SI, MicroOp.SB -> stores[regionOf(registers, InstructionCache.dest(decoded))]++;
+            case MicroOp.CAS, MicroOp.FADD -> {
+                int region = regionOf(registers, InstructionCache.src(decoded));
+                loads[region]++;
+                stores[region]++;
+            }
+            case MicroOp.MEMCPY -> {
+                loads[regionOf(registers, InstructionCache.src(decoded))]++;
+                stores[regionOf(registers, InstructionCache.dest(decoded))]++;
+            }
+            case MicroOp.MEMSET -> stores[regionOf(registers, InstructionCache.dest(decoded))]++;
+            case MicroOp.MEMCMP -> {
+                loads[regionOf(registers, InstructionCache.dest(decoded))]++;
+                loads[regionOf(registers, InstructionCache.src(decoded))]++;
+            }
+            case MicroOp.JAL -> call(valueOf(registers, InstructionCache.dest(decoded)), pc + 4);
+            case MicroOp.JMP -> returnTo(valueOf(registers, InstructionCache.dest(decoded)));
+            default -> {}
+        }
+    }
+
+    private void countPc(long pc, int op) {
+        if (Long.compareUnsigned(pc, MemoryMap.TOTAL_SIZE) >= 0) return; // faults on fetch
+        int pageIndex = MemoryMap.pageOf(pc);
+        if (pcCounts[pageIndex] == null) {
+            pcCounts[pageIndex] = new long[SLOTS_PER_PAGE];
+            pcOps[pageIndex] = new byte[SLOTS_PER_PAGE];
+        }
+        int slot = (int) (pc & MemoryMap.PAGE_MASK) >>> 2;
+        pcCounts[pageIndex][slot]++;
+        pcOps[pageIndex][slot] = (byte) op;
+    }
+
+    private static int regionOf(long[] registers, int reg) {
+        return MemoryRegion.of(valueOf(registers, reg)).ordinal();
+    }
+
+    private static long valueOf(long[] registers, int reg) {
+        return reg < registers.length ? registers[reg] : -1; // the CPU faults on it right after
+    }
+
+    private void endBlock() {
+        long[] block = blocks.computeIfAbsent(blockStart, pc -> new long[2]);
+        block[0]++;
+        block[1] += blockLength;
+        blockStart = -1;
+        blockLength = 0;
+    }
+
+    private void call(long target, long returnAddress) {
+        if (depth == returnAddresses.length) {
+            returnAddresses = Arrays.copyOf(returnAddresses, depth * 2);
+        }
+        returnAddresses[depth++] = returnAddress;
+        current = current.child(target);
+    }
+
+    private void returnTo(long target) {
+        for (int i = depth - 1; i >= 0; i--) {
+            if (returnAddresses[i] == target) {
+                while (depth > i) {
+                    depth--;
+                    current = current.parent;
+                }
+                return;
+            }
+        }
+    }
+
+    /*—— Results, read by ProfileReport —————————*/
+
+    long getInstructions() {
+        return instructions;
+    }
+
+    long getOpCount(int op) {
+        return opCounts[op];
+    }
+
+    long getLoads(MemoryRegion region) {
+        return loads[region.ordinal()];
+    }
+
+    long getStores(MemoryRegion region) {
+        return stores[region.ordinal()];
+    }
+
+    /** Op of the instruction last executed at pc */
+    int getOpAt(long pc) {
+        byte[] page = pcOps[MemoryMap.pageOf(pc)];
+        return page != null ? page[(int) (pc & MemoryMap.PAGE_MASK) >>> 2] & 0xFF : MicroOp.ILLEGAL;
+    }
+
+    /** Visits every PC that executed at least once, in address order */
+    void forEachPc(PcVisitor visitor) {
+        for (int pageIndex = 0; pageIndex < pcCounts.length; pageIndex++) {
+            long[] page = pcCounts[pageIndex];
+            if (page == null) continue;
+            for (int slot = 0; slot < SLOTS_PER_PAGE; slot++) {
+                if (page[slot] != 0) visitor.visit(MemoryMap.pageBase(pageIndex) + 4L * slot, page[slot]);
+            }
+        }
+    }
+
+    /** Block entry PC -> {entries, instructions}, including a block still running */
+    Map<Long, long[]> getBlocks() {
+        Map<Long, long[]> result = new HashMap<>();
+        blocks.forEach((pc, counts) -> result.put(pc, counts.clone()));
+        if (blockStart >= 0) {
+            long[] block = result.computeIfAbsent(blockStart, pc -> new long[2]);
+            block[0]++;
+            block[1] += blockLength;
+        }
+        return result;
+    }
+
+    CallNode getCallTree() {
+        return root;
+    }
+
+    @FunctionalInterface
+    interface PcVisitor {
+        void visit(long pc, long count);
+    }
+
+    /** One calling context: a function reached through a particular chain of calls */
+    static final class CallNode {
+        @Nullable
+        final CallNode parent;
+        final long entry; // -1 for the root, which runs before any call
+        final Map<Long, CallNode> children = new HashMap<>();
+        long self; // instructions retired in this context, excluding callees
+
+        CallNode(@Nullable CallNode parent, long entry) {
+            this.parent = parent;
+            this.entry = entry;
+        }
+
+        CallNode child(long entry) {
+            return children.computeIfAbsent(entry, e -> new CallNode(this, e));
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package org.lpc.headless;
+
+import org.lpc.VirtualMachine;
+import org.lpc.cpu.ExecutionMode;
+import org.lpc.cpu.ExecutionTrail;
+import org.lpc.cpu.profile.ProfileReport;
+import org.lpc.cpu.profile.Profiler;
+import org.lpc.memory.MemoryMap;
+import org.lpc.memory.MemoryStorage;
+import org.lpc.memory.io.replay.MmioRecorder;
+import org.lpc.memory.io.replay.MmioReplayer;
+import org.lpc.snapshot.VmSnapshot;
+import org.lpc.utils.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Command line entry point for running guest programs without JavaFX.
+ * .
+ * Usage: HeadlessMain <file.tc|file.tasm|file.snap> [--budget N] [--timeout-ms N] [--memory-mb N]
+ *                     [--mode INTERPRETER|JIT|DIFFERENTIAL] [--profile PREFIX]
+ *                     [--snapshot-out FILE] [--record-mmio FILE | --replay-mmio FILE]
+ *                     [--deterministic-time] [--trail N] [--jobs N [--resident N]]
+ *                     [--memory-file FILE | --memory-image FILE]
+ * .
+ * --record-mmio logs every device read and interrupt taken, and --replay-mmio
+ * feeds such a log back instead of the devices, see {@link MmioRecorder};
+ * replay a log with interrupts in the --mode it was recorded in.
+ * --deterministic-time derives the guest's clocks and timer alarms from
+ * retired instructions, so repeated runs see the same times, see TimerDevice.
+ * --trail keeps the last N instructions in an {@link ExecutionTrail}, and
+ * prints them if the guest faults; see Cpu.setTrail for what recording costs.
+ * A .snap file is a {@link VmSnapshot} and resumes where it was taken;
+ * --snapshot-out saves the VM when the run stops, whatever the reason,
+ * so e.g. a budget-limited boot can be snapshotted and reused.
+ * With --profile the run is recorded by a {@link Profiler} and the report is
+ * written to PREFIX.txt, PREFIX.json and PREFIX.folded (collapsed stacks).
+ * With --jobs the program is run N times on a {@link VmHost} and the host
+ * throughput and density are reported instead of a single result.
+ * --memory-file maps guest memory onto FILE, creating it if needed, so it
+ * holds the memory when the run ends and can be read by other tools while
+ * it runs. --memory-image starts from such a file mapped copy-on-write,
+ * leaving it unchanged. Both map the whole address space, see
+ * {@link org.lpc.memory.MappedFileStorage}.
+ * .
+ * Exit status: 0 finished, 1 guest fault, 2 budget, timeout or stop hit, 64 bad usage.
+ */
+public final class HeadlessMain {
+    private static final long DEFAULT_BUDGET = 1_000_000_000L;
+    private static final long DEFAULT_TIMEOUT_MS = 60_000;
+    private static final String SNAPSHOT_EXTENSION = ".snap";
+    private static final String USAGE = "Usage: HeadlessMain <file.tc|file.tasm|file.snap> [--budget N] "
+            + "[--timeout-ms N] [--memory-mb N] [--mode INTERPRETER|JIT|DIFFERENTIAL] [--profile PREFIX] "
+            + "[--snapshot-out FILE] [--record-mmio FILE | --replay-mmio FILE] [--deterministic-time] [--trail N] [--jobs N [--resident N]] "
+            + "[--memory-file FILE | --memory-image FILE]";
+
+    public static void main(String[] args) throws Exception {
+        Path file = null;
+        Path profilePrefix = null;
+        Path snapshotOut = null;
+        Path recordMmio = null;
+        Path replayMmio = null;
+        Path memoryFile = null;
+        FileChannel.MapMode memoryFileMode = null;
+        boolean deterministicTime = false;
+        int trailLength = 0;
+        long budget = DEFAULT_BUDGET;
+        long timeoutMs = DEFAULT_TIMEOUT_MS;
+        long memoryBytes = Long.MAX_VALUE;
+        int jobs = 0;
+        int resident = 1;
+        ExecutionMode mode = ExecutionMode.INTERPRETER;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--budget" -> budget = Long.parseLong(args[++i]);
+                    case "--timeout-ms" -> timeoutMs = Long.parseLong(args[++i]);
+                    case "--memory-mb" -> memoryBytes = Long.parseLong(args[++i]) << 20;
+                    case "--mode" -> mode = ExecutionMode.valueOf(args[++i]);
+                    case "--profile" -> profilePrefix = Path.of(args[++i]);
+                    case "--snapshot-out" -> snapshotOut = Path.of(args[++i]);
+                    case "--record-mmio" -> recordMmio = Path.of(args[++i]);
+                    case "--replay-mmio" -> replayMmio = Path.of(args[++i]);
+                    case "--deterministic-time" -> deterministicTime = true;
+                    case "--trail" -> trailLength = Integer.parseInt(args[++i]);
+                    case "--jobs" -> jobs = Integer.parseInt(args[++i]);
+                    case "--resident" -> resident = Integer.parseInt(args[++i]);
+                    case "--memory-file", "--memory-image" -> {
+                        if (memoryFile != null) throw new IllegalArgumentException("only one memory file");
+                        memoryFileMode = args[i].equals("--memory-file")
+                                ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.PRIVATE;
+                        memoryFile = Path.of(args[++i]);
+                    }
+                    default -> {
+                        if (args[i].startsWith("--") || file != null) throw new IllegalArgumentException(args[i]);
+                        file = Path.of(args[i]);
+                    }
+                }
+            }
+            if (file == null) throw new IllegalArgumentException("missing program file");
+            if (recordMmio != null && replayMmio != null) {
+                throw new IllegalArgumentException("--record-mmio and --replay-mmio exclude each other");
+            }
+            if (jobs > 0 && (recordMmio != null || replayMmio != null || profilePrefix != null || deterministicTime
+                    || trailLength > 0 || memoryFile != null)) {
+                throw new IllegalArgumentException(
+                        "--jobs runs without profiling, trails, MMIO logs, deterministic time or memory files");
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println("Bad argument: " + e.getMessage());
+            System.err.println(USAGE);
+            System.exit(64);
+            return;
+        }
+
+        VmQuota quota = new VmQuota(budget, memoryBytes, Duration.ofMillis(timeoutMs));
+        if (jobs > 0) {
+            runJobs(file, quota, mode, jobs, resident);
+            return;
+        }
+
+        HeadlessRunner runner = new HeadlessRunner(quota, mode, memoryFile != null
+                ? mappedStorage(memoryFile, memoryFileMode) : HeadlessRunner.DEFAULT_STORAGE);
+        Profiler profiler = profilePrefix != null ? new Profiler() : null;
+        ExecutionTrail trail = trailLength > 0 ? new ExecutionTrail(trailLength) : null;
+        MmioRecorder recorder = recordMmio != null ? MmioRecorder.toFile(recordMmio) : null;
+        MmioReplayer replayer = replayMmio != null ? MmioReplayer.fromFile(replayMmio) : null;
+        boolean deterministic = deterministicTime;
+        Consumer<VirtualMachine> setup = vm -> {
+            vm.getCpu().setProfiler(profiler);
+            vm.getCpu().setTrail(trail);
+            vm.getTimerDevice().setDeterministic(deterministic);
+            if (recorder != null) recorder.attach(vm);
+            if (replayer != null) replayer.attach(vm);
+        };
+        Path saveTo = snapshotOut;
+        Consumer<VirtualMachine> onExit = saveTo == null ? vm -> {} : vm -> saveSnapshot(vm, saveTo);
+
+        RunResult result;
+        ProgramImage image = null;
+        if (isSnapshot(file)) {
+            result = runner.run(VmSnapshot.load(file), setup, onExit);
+        } else {
+            image = loadImage(file);
+            result = runner.run(image, setup, onExit);
+        }
+        System.out.print(result.format());
+        if (recorder != null) {
+            recorder.close();
+            System.out.printf("MMIO log: %d reads and %d interrupts recorded to %s%n",
+                    recorder.getReads(), recorder.getInterrupts(), recordMmio);
+        }
+        if (replayer != null) {
+            replayer.close();
+            System.out.printf("MMIO log: %d reads and %d interrupts replayed from %s%n",
+                    replayer.getReads(), replayer.getInterrupts(), replayMmio);
+        }
+        if (profiler != null) {
+            new ProfileReport(profiler, image != null ? image.getSymbols() : null).write(profilePrefix);
+            System.out.printf("Profile written to %s.{txt,json,folded}%n", profilePrefix);
+        }
+        if (result.fault() != null) {
+            Logger.logError(result.fault());
+            if (trail != null && result.exitReason() == RunResult.ExitReason.FAULT) {
+                System.err.printf("Last %d instructions, the faulting one last:%n", trail.size());
+                trail.dump(System.err, trail.size());
+            }
+        }
+        System.exit(switch (result.exitReason()) {
+            case FINISHED -> 0;
+            case FAULT -> 1;
+            case BUDGET_EXHAUSTED, TIMEOUT, STOPPED -> 2;
+        });
+    }
+
+    private static void runJobs(Path file, VmQuota quota, ExecutionMode mode, int jobs, int resident)
+            throws Exception {
+        VmSnapshot snapshot = isSnapshot(file) ? VmSnapshot.load(file) : null;
+        ProgramImage image = snapshot == null ? loadImage(file) : null;
+
+        Map<RunResult.ExitReason, Integer> outcomes = new EnumMap<>(RunResult.ExitReason.class);
+        VmHost.HostStats stats;
+        try (VmHost host = new VmHost(resident)) {
+            List<CompletableFuture<RunResult>> results = new ArrayList<>();
+            for (int i = 0; i < jobs; i++) {
+                results.add(snapshot != null ? host.submit(snapshot, quota, mode) : host.submit(image, quota, mode));
+            }
+            for (CompletableFuture<RunResult> result : results) {
+                outcomes.merge(result.get().exitReason(), 1, Integer::sum);
+            }
+            stats = host.stats();
+        }
+
+        System.out.printf("Jobs: %d %s%n", jobs, outcomes);
+        System.out.printf("Instructions retired: %d in %.2f ms%n", stats.instructionsRetired(), stats.elapsedMillis());
+        System.out.printf("Throughput: %.2f MIPS total, %.2f MIPS per core (%d cores)%n",
+                stats.totalMips(), stats.mipsPerCore(), stats.hostCores());
+        System.out.printf("Density: %.1f VMs per GB of unshared committed memory (%d KB shared per VM)%n",
+                stats.vmsPerGigabyte(), stats.completedVms() > 0 ? stats.sharedBytes() / stats.completedVms() / 1024 : 0);
+    }
+
+    private static Supplier<MemoryStorage> mappedStorage(Path file, FileChannel.MapMode mode) {
+        return () -> {
+            try {
+                return MemoryStorage.mapped(file, MemoryMap.TOTAL_SIZE, mode);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
+    private static boolean isSnapshot(Path file) {
+        return file.getFileName().toString().endsWith(SNAPSHOT_EXTENSION);
+    }
+
+    private static void saveSnapshot(VirtualMachine vm, Path path) {
+        try {
+            VmSnapshot snapshot = VmSnapshot.capture(vm);
+            snapshot.save(path);
+            System.out.printf("Snapshot written to %s (%d KB)%n", path, snapshot.sizeBytes() / 1024);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static ProgramImage loadImage(Path file) throws IOException {
+        String source = Files.readString(file);
+        String name = file.getFileName().toString();
+        if (name.endsWith(".tasm")) return ProgramImage.fromAssembly(source);
+        if (name.endsWith(".tc")) return ProgramImage.fromTriC(source);
+        throw new IllegalArgumentException("Unknown source type (expected .tc, .tasm or .snap): " + name);
+    }
+
+    private HeadlessMain() {}
+}
@@ -0,0 +1,172 @@
+package org.lpc.headless;
+
+import lombok.Getter;
+import org.lpc.VirtualMachine;
+import org.lpc.cpu.Cpu;
+import org.lpc.cpu.ExecutionMode;
+import org.lpc.cpu.RunState;
+import org.lpc.memory.MemoryMap;
+import org.lpc.memory.MemoryStorage;
+import org.lpc.snapshot.VmSnapshot;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Compiles, assembles, loads and runs a guest program without any UI.
+ * .
+ * Execution is sliced so the wall-clock timeout is checked every
+ * SLICE_INSTRUCTIONS; the instruction budget is enforced by the CPU itself.
+ * A guest waiting for an event parks the thread until then. Headless,
+ * nothing raises one unless a secondary core is running, so an open-ended
+ * wait on core 0 alone stops the run instead.
+ * {@link VmHost} runs the same loop for many guests at once.
+ * Each run gets a fresh VirtualMachine, its memory from the storage supplier.
+ */
+@Getter
+public class HeadlessRunner {
+    private static final long SLICE_INSTRUCTIONS = 1 << 20;
+    static final Supplier<MemoryStorage> DEFAULT_STORAGE = () -> MemoryStorage.paged(MemoryMap.TOTAL_SIZE);
+
+    private final VmQuota quota;
+    private final ExecutionMode executionMode;
+    private final Supplier<MemoryStorage> storage;
+
+    public HeadlessRunner(long instructionBudget, Duration timeout, ExecutionMode executionMode) {
+        this(new VmQuota(instructionBudget, Long.MAX_VALUE, timeout), executionMode);
+    }
+
+    public HeadlessRunner(VmQuota quota, ExecutionMode executionMode) {
+        this(quota, executionMode, DEFAULT_STORAGE);
+    }
+
+    /** @param storage called once per run for the VM's memory, e.g. a MappedFileStorage */
+    public HeadlessRunner(VmQuota quota, ExecutionMode executionMode, Supplier<MemoryStorage> storage) {
+        this.quota = quota;
+        this.executionMode = executionMode;
+        this.storage = storage;
+    }
+
+    /** Runs a .tc (TriC) or .tasm (assembly) file, chosen by extension */
+    public RunResult runFile(Path path) throws IOException {
+        String source = Files.readString(path);
+        String name = path.getFileName().toString();
+        if (name.endsWith(".tasm")) return runAssembly(source);
+        if (name.endsWith(".tc")) return runTriC(source);
+        throw new IllegalArgumentException("Unknown source type (expected .tc or .tasm): " + name);
+    }
+
+    public RunResult runTriC(String source) {
+        return run(ProgramImage.fromTriC(source));
+    }
+
+    public RunResult runAssembly(String source) {
+        return run(ProgramImage.fromAssembly(source));
+    }
+
+    /** Runs an already assembled program */
+    public RunResult runProgram(int[] program) {
+        return run(ProgramImage.of(program));
+    }
+
+    public RunResult run(ProgramImage image) {
+        return run(image, vm -> {}, vm -> {});
+    }
+
+    /**
+     * Runs an already assembled program.
+     * @param setup gets the loaded VM before it runs, e.g. to attach a profiler or MMIO recorder
+     * @param onExit gets the VM once the run has stopped, e.g. to snapshot it
+     */
+    public RunResult run(ProgramImage image, Consumer<VirtualMachine> setup, Consumer<VirtualMachine> onExit) {
+        return run(image::loadInto, setup, onExit, new LinkedHashMap<>(image.getBuildMillis()));
+    }
+
+    /** Resumes a VM from a snapshot; the quota applies to what runs after the restore */
+    public RunResult run(VmSnapshot snapshot, Consumer<VirtualMachine> setup, Consumer<VirtualMachine> onExit) {
+        return run(snapshot::restoreInto, setup, onExit, new LinkedHashMap<>());
+    }
+
+    private RunResult run(Consumer<VirtualMachine> load, Consumer<VirtualMachine> setup,
+                          Consumer<VirtualMachine> onExit, Map<String, Double> stages) {
+        return run(load.andThen(setup), quota, executionMode, storage, stages, SLICE_INSTRUCTIONS, retired -> {},
+                onExit);
+    }
+
+    /**
+     * Boots a fresh VM, loads the guest and runs it within the quota.
+     * @param load puts the guest into the VM, e.g. an image or a snapshot
+     * @param afterSlice called with the instructions retired after every slice
+     */
+    static RunResult run(Consumer<VirtualMachine> load, VmQuota quota, ExecutionMode executionMode,
+                         Supplier<MemoryStorage> storage, Map<String, Double> stages, long sliceInstructions,
+                         LongConsumer afterSlice, Consumer<VirtualMachine> onExit) {
+        VirtualMachine vm = timed(stages, "boot", () -> new VirtualMachine(1, storage.get()));
+        vm.getMemory().setCommitLimit(quota.maxMemoryBytes());
+        vm.getMemory().setSingleWriter(true);
+        timed(stages, "load", () -> {
+            load.accept(vm);
+            return null;
+        });
+
+        Cpu cpu = vm.getCpu();
+        cpu.setExecutionMode(executionMode);
+        long retiredBefore = cpu.getInstructionsRetired();
+        long start = System.nanoTime();
+        RunResult.ExitReason reason = execute(vm, quota, start + quota.timeout().toNanos(),
+                sliceInstructions, afterSlice);
+        stages.put("execute", (System.nanoTime() - start) / 1_000_000.0);
+        onExit.accept(vm);
+
+        return new RunResult(reason, cpu.getLastFault(), cpu.getRegisters().clone(), cpu.getProgramCounter(),
+                cpu.getInstructionsRetired() - retiredBefore, vm.getMemory().getCommittedBytes(),
+                vm.getMemory().getSharedBytes(), stages);
+    }
+
+    private static RunResult.ExitReason execute(VirtualMachine vm, VmQuota quota, long deadline,
+                                                long sliceInstructions, LongConsumer afterSlice) {
+        Cpu cpu = vm.getCpu();
+        long limit = cpu.getInstructionsRetired() + quota.maxInstructions();
+        if (limit < 0) limit = Long.MAX_VALUE; // overflowed, i.e. unlimited
+        while (true) {
+            long before = cpu.getInstructionsRetired();
+            RunState state = cpu.run(Math.min(limit - before, sliceInstructions));
+            afterSlice.accept(cpu.getInstructionsRetired() - before);
+            switch (state) {
+                case HALTED -> { return RunResult.ExitReason.FINISHED; }
+                case FAULT -> { return RunResult.ExitReason.FAULT; }
+                case BREAKPOINT -> { return RunResult.ExitReason.STOPPED; }
+                case WAITING_FOR_IO -> {
+                    // Nothing left that could wake the only running core
+                    if (!cpu.isWaitTimed() && vm.getSmpDevice().getRunningMask() == 1
+                            && !vm.getTimerDevice().isAlarmArmed()) {
+                        return RunResult.ExitReason.STOPPED;
+                    }
+                    try {
+                        cpu.awaitEvent(deadline - System.nanoTime());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return RunResult.ExitReason.STOPPED;
+                    }
+                }
+                case BUDGET_EXHAUSTED -> {}
+            }
+            if (cpu.getInstructionsRetired() >= limit) return RunResult.ExitReason.BUDGET_EXHAUSTED;
+            if (System.nanoTime() - deadline >= 0) return RunResult.ExitReason.TIMEOUT;
+        }
+    }
+
+    static <T> T timed(Map<String, Double> stages, String name, Supplier<T> stage) {
+        long start = System.nanoTime();
+        T result = stage.get();
+        stages.put(name, (System.nanoTime() - start) / 1_000_000.0);
+        return result;
+    }
+}
@@ -0,0 +1,72 @@
+package org.lpc.headless;
+
+import lombok.Getter;
+import org.lpc.VirtualMachine;
+import org.lpc.assembler.Assembler;
+import org.lpc.assembler.SymbolTable;
+import org.lpc.compiler.TriCCompiler;
+import org.lpc.memory.MemoryMap;
+import org.lpc.memory.SharedImage;
+import org.lpc.utils.StageUtils;
+
+import javax.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An assembled program, built once and loaded into any number of VMs.
+ * Keeps the little-endian RAM image as a SharedImage, so every VM maps the
+ * same program pages until it writes one of them.
+ */
+public final class ProgramImage {
+    private final SharedImage image;
+    @Getter
+    private final int instructionCount;
+    /** Compile and assemble timings, in milliseconds */
+    @Getter
+    private final Map<String, Double> buildMillis;
+    /** Labels from assembly, null for images made from raw machine code */
+    @Nullable
+    @Getter
+    private final SymbolTable symbols;
+
+    private ProgramImage(int[] program, Map<String, Double> buildMillis, @Nullable SymbolTable symbols) {
+        StageUtils.validateProgramSize(program);
+        ByteBuffer buffer = ByteBuffer.allocate(program.length * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asIntBuffer().put(program);
+        this.image = SharedImage.of(buffer.array());
+        this.instructionCount = program.length;
+        this.buildMillis = Collections.unmodifiableMap(buildMillis);
+        this.symbols = symbols;
+    }
+
+    public static ProgramImage fromTriC(String source) {
+        Map<String, Double> stages = new LinkedHashMap<>();
+        List<String> compiled = HeadlessRunner.timed(stages, "compile", () -> new TriCCompiler(source).compile());
+        return assemble(String.join("\n", compiled), stages);
+    }
+
+    public static ProgramImage fromAssembly(String source) {
+        return assemble(source, new LinkedHashMap<>());
+    }
+
+    public static ProgramImage of(int[] program) {
+        return new ProgramImage(program.clone(), new LinkedHashMap<>(), null);
+    }
+
+    private static ProgramImage assemble(String assembly, Map<String, Double> stages) {
+        Assembler assembler = new Assembler();
+        int[] program = HeadlessRunner.timed(stages, "assemble", () -> assembler.assemble(assembly));
+        return new ProgramImage(program, stages, assembler.getSymbolTable());
+    }
+
+    /** Places the program at the start of RAM, sharing its pages copy-on-write */
+    public void loadInto(VirtualMachine vm) {
+        vm.getMemory().writeShared(MemoryMap.RAM_BASE, image);
+    }
+}
@@ -0,0 +1,55 @@
+package org.lpc.headless;
+
+import org.lpc.cpu.RegisterInfo;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+
+/**
+ * Outcome of a headless run.
+ * @param fault the exception that stopped the guest, only set for FAULT
+ * @param committedBytes RAM and framebuffer bytes in pages the guest touched
+ * @param sharedBytes the part of committedBytes still shared with other VMs, e.g. unwritten program pages
+ * @param stageMillis wall-clock time per pipeline stage, in execution order
+ */
+public record RunResult(
+        ExitReason exitReason,
+        @Nullable Throwable fault,
+        long[] registers,
+        long programCounter,
+        long instructionsRetired,
+        long committedBytes,
+        long sharedBytes,
+        Map<String, Double> stageMillis
+) {
+    public enum ExitReason {
+        FINISHED,          // HLT or end of program
+        BUDGET_EXHAUSTED,
+        TIMEOUT,
+        FAULT,
+        STOPPED            // breakpoint, or idle waiting for input that never comes headless
+    }
+
+    /** Millions of guest instructions per second of execute stage */
+    public double mips() {
+        double millis = stageMillis.getOrDefault("execute", 0.0);
+        return millis > 0 ? instructionsRetired / (millis * 1000.0) : 0;
+    }
+
+    public String format() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Exit: %s%n", exitReason));
+        if (fault != null) {
+            sb.append(String.format("Fault: %s%n", fault));
+        }
+        sb.append(String.format("PC: 0x%016X%n", programCounter));
+        sb.append(String.format("Instructions retired: %d (%.2f MIPS)%n", instructionsRetired, mips()));
+        sb.append(String.format("Memory committed: %d KB (%d KB shared)%n", committedBytes / 1024, sharedBytes / 1024));
+        stageMillis.forEach((stage, millis) -> sb.append(String.format("  %-10s %10.2f ms%n", stage, millis)));
+        for (int i = 0; i < registers.length; i++) {
+            sb.append(String.format("%-3s 0x%016X%s", RegisterInfo.REG_NAMES[i], registers[i],
+                    i % 4 == 3 ? System.lineSeparator() : "   "));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,129 @@
+package org.lpc.headless;
+
+import org.lpc.VirtualMachine;
+import org.lpc.cpu.ExecutionMode;
+import org.lpc.snapshot.VmSnapshot;
+import org.lpc.utils.Logger;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Runs many guest VMs in one JVM, each on its own virtual thread.
+ * .
+ * Guests execute in instruction slices and yield between them, so a few
+ * carrier threads (one per host core) multiplex any number of VMs fairly.
+ * A resident VM holds its page table and the pages it has written; the ROM
+ * and program pages it has not written are shared with the other VMs, see
+ * SharedImage. That still grows with what the guests touch, so the number
+ * of resident VMs is capped separately from the number of jobs; queued
+ * jobs wait on a virtual thread without holding any guest memory.
+ */
+public class VmHost implements AutoCloseable {
+    private static final long SLICE_INSTRUCTIONS = 1 << 16;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore residentSlots;
+    private final LongAdder instructionsRetired = new LongAdder();
+    private final LongAdder committedBytes = new LongAdder();
+    private final LongAdder sharedBytes = new LongAdder();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger completed = new AtomicInteger();
+    private final long startNanos = System.nanoTime();
+
+    public VmHost(int maxResidentVms) {
+        if (maxResidentVms <= 0) throw new IllegalArgumentException("Need at least one resident VM");
+        this.residentSlots = new Semaphore(maxResidentVms, true);
+    }
+
+    /** Queues a guest; the image's pages are shared copy-on-write rather than copied per job */
+    public CompletableFuture<RunResult> submit(ProgramImage image, VmQuota quota, ExecutionMode executionMode) {
+        return submit(image::loadInto, quota, executionMode);
+    }
+
+    /** Queues a guest resumed from a snapshot, e.g. of an already booted program */
+    public CompletableFuture<RunResult> submit(VmSnapshot snapshot, VmQuota quota, ExecutionMode executionMode) {
+        return submit(snapshot::restoreInto, quota, executionMode);
+    }
+
+    private CompletableFuture<RunResult> submit(Consumer<VirtualMachine> load, VmQuota quota,
+                                                ExecutionMode executionMode) {
+        CompletableFuture<RunResult> result = new CompletableFuture<>();
+        executor.submit(() -> {
+            try {
+                residentSlots.acquire();
+            } catch (InterruptedException e) {
+                result.completeExceptionally(e);
+                return;
+            }
+            running.incrementAndGet();
+            try {
+                RunResult run = HeadlessRunner.run(load, quota, executionMode, HeadlessRunner.DEFAULT_STORAGE,
+                        new LinkedHashMap<>(), SLICE_INSTRUCTIONS, retired -> {
+                            instructionsRetired.add(retired);
+                            Thread.yield();
+                        }, vm -> {});
+                committedBytes.add(run.committedBytes());
+                sharedBytes.add(run.sharedBytes());
+                result.complete(run);
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            } finally {
+                running.decrementAndGet();
+                completed.incrementAndGet();
+                residentSlots.release();
+            }
+        });
+        return result;
+    }
+
+    public HostStats stats() {
+        return new HostStats(running.get(), completed.get(), instructionsRetired.sum(), committedBytes.sum(),
+                sharedBytes.sum(), (System.nanoTime() - startNanos) / 1_000_000.0,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Waits for queued jobs to finish */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.HOURS)) {
+                Logger.log("VmHost: jobs still running after shutdown timeout");
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Aggregate host counters.
+     * @param committedBytes memory committed by completed VMs, summed
+     * @param sharedBytes the part of committedBytes in pages shared between VMs, counted once per VM
+     * @param elapsedMillis time since the host was created
+     */
+    public record HostStats(int runningVms, int completedVms, long instructionsRetired, long committedBytes,
+                            long sharedBytes, double elapsedMillis, int hostCores) {
+        public double totalMips() {
+            return elapsedMillis > 0 ? instructionsRetired / (elapsedMillis * 1000.0) : 0;
+        }
+
+        public double mipsPerCore() {
+            return totalMips() / hostCores;
+        }
+
+        /** VMs that fit in 1 GB if each only held the pages it committed and does not share */
+        public double vmsPerGigabyte() {
+            long privateBytes = committedBytes - sharedBytes;
+            return completedVms > 0 && privateBytes > 0 ? (1L << 30) / ((double) privateBytes / completedVms) : 0;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package org.lpc.headless;
+
+import java.time.Duration;
+
+/**
+ * Per-VM resource limits.
+ * @param maxInstructions instructions the guest may retire
+ * @param maxMemoryBytes RAM and framebuffer bytes the guest may commit, counted per touched page
+ * @param timeout wall-clock limit for the execute stage
+ */
+public record VmQuota(long maxInstructions, long maxMemoryBytes, Duration timeout) {
+    public static final VmQuota UNLIMITED = new VmQuota(Long.MAX_VALUE, Long.MAX_VALUE, Duration.ofDays(365));
+
+    public VmQuota {
+        if (maxInstructions <= 0) throw new IllegalArgumentException("Instruction quota must be positive");
+        if (maxMemoryBytes <= 0) throw new IllegalArgumentException("Memory quota must be positive");
+        if (timeout.isNegative() || timeout.isZero()) throw new IllegalArgumentException("Timeout must be positive");
+    }
+}
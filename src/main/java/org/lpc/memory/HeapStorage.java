@@ -0,0 +1,92 @@
+package org.lpc.memory;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/** A heap byte array, with little-endian array views for the wider accesses */
+final class HeapStorage implements MemoryStorage {
+    private static final VarHandle SHORTS = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INTS = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final byte[] array;
+
+    HeapStorage(long size) {
+        if (size <= 0 || size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Heap memory size out of range: " + size);
+        }
+        array = new byte[(int) size];
+    }
+
+    @Override
+    public long size() {
+        return array.length;
+    }
+
+    @Override
+    public byte getByte(long address) {
+        return array[(int) address];
+    }
+
+    @Override
+    public short getShort(long address) {
+        return (short) SHORTS.get(array, (int) address);
+    }
+
+    @Override
+    public int getInt(long address) {
+        return (int) INTS.get(array, (int) address);
+    }
+
+    @Override
+    public long getLong(long address) {
+        return (long) LONGS.get(array, (int) address);
+    }
+
+    @Override
+    public void putByte(long address, byte value) {
+        array[(int) address] = value;
+    }
+
+    @Override
+    public void putShort(long address, short value) {
+        SHORTS.set(array, (int) address, value);
+    }
+
+    @Override
+    public void putInt(long address, int value) {
+        INTS.set(array, (int) address, value);
+    }
+
+    @Override
+    public void putLong(long address, long value) {
+        LONGS.set(array, (int) address, value);
+    }
+
+    @Override
+    public void copyOut(long address, byte[] dest, int offset, int length) {
+        System.arraycopy(array, (int) address, dest, offset, length);
+    }
+
+    @Override
+    public void copyIn(long address, byte[] src, int offset, int length) {
+        System.arraycopy(src, offset, array, (int) address, length);
+    }
+
+    @Override
+    public int mismatch(long first, long second, int length) {
+        return Arrays.mismatch(array, (int) first, (int) first + length, array, (int) second, (int) second + length);
+    }
+
+    @Override
+    public void move(long src, long dest, int length) {
+        System.arraycopy(array, (int) src, array, (int) dest, length);
+    }
+
+    @Override
+    public void fill(long address, int length, byte value) {
+        Arrays.fill(array, (int) address, (int) address + length, value);
+    }
+}
@@ -0,0 +1,78 @@
+package org.lpc.memory;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Guest memory mapped from a host file, the whole address space from 0 so
+ * the file's offsets are guest addresses. The OS pages it in and out, so it
+ * takes neither heap nor swap-backed memory until written.
+ * .
+ * READ_WRITE writes guest stores through to the file: it persists the
+ * memory and lets other processes or tools read it as it runs. The file is
+ * created or grown to the mapped size, sparse where the guest never wrote.
+ * PRIVATE maps copy-on-write: the file is never changed, each VM gets its own
+ * copy of the pages it writes, and many VMs can start from one image made
+ * with READ_WRITE.
+ * .
+ * The mapping lasts until the storage is collected; closing the channel
+ * doesn't end it.
+ */
+@Getter
+public final class MappedFileStorage extends OffHeapStorage {
+    private final Path file;
+    private final FileChannel.MapMode mode;
+
+    private MappedFileStorage(long size, ByteBuffer[] chunks, Path file, FileChannel.MapMode mode) {
+        super(size, chunks);
+        this.file = file;
+        this.mode = mode;
+    }
+
+    static MappedFileStorage map(Path file, long size, FileChannel.MapMode mode) throws IOException {
+        ByteBuffer[] chunks = new ByteBuffer[chunkCount(size)];
+        if (mode == FileChannel.MapMode.READ_WRITE) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                mapChunks(channel, size, mode, chunks);
+            }
+        } else if (mode == FileChannel.MapMode.PRIVATE) {
+            // Pages past the end of the file would fault on access rather than read as zero
+            long length = Files.size(file);
+            if (length < size) {
+                throw new IllegalArgumentException(String.format(
+                        "Memory image %s is %d bytes, %d are mapped", file, length, size));
+            }
+            // FileChannel only maps PRIVATE from a writable channel, though nothing is written
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                mapChunks(channel, size, mode, chunks);
+            }
+        } else {
+            throw new IllegalArgumentException("Guest memory must be writable, got map mode " + mode);
+        }
+        return new MappedFileStorage(size, chunks, file, mode);
+    }
+
+    private static void mapChunks(FileChannel channel, long size, FileChannel.MapMode mode, ByteBuffer[] chunks)
+            throws IOException {
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = channel.map(mode, (long) i << CHUNK_SHIFT, chunkSize(size, i)).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /** Writes what the guest stored so far out to the file; only READ_WRITE mappings have anything to write */
+    public void force() {
+        if (mode != FileChannel.MapMode.READ_WRITE) return;
+        for (ByteBuffer chunk : chunks()) {
+            ((MappedByteBuffer) chunk).force();
+        }
+    }
+}
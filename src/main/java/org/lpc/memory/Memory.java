@@ -1,41 +1,112 @@
 package org.lpc.memory;
 
 import lombok.Getter;
+import lombok.Setter;
 import org.lpc.memory.io.IODevice;
 import org.lpc.memory.io.IODeviceManager;
+import org.lpc.memory.io.MmioReadHook;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import javax.annotation.Nullable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.StampedLock;
 
 public class Memory {
-    private final ByteBuffer buffer;
+    private final MemoryStorage storage;
     private final StampedLock lock = new StampedLock();
     private final IODeviceManager ioDeviceManager;
     @Getter
     private volatile boolean initialized = false;
 
-    @SuppressWarnings("ConstantValue")
+    // Page state bits, together in one array so isPlainWrite checks a page with one load.
+    // Committed pages were written at least once; their total is what the guest really uses and what quotas limit
+    private static final byte PAGE_COMMITTED = 1;
+    // Tracked pages' writes must be reported to the page write listeners (e.g. decoded code)
+    private static final byte PAGE_TRACKED = 2;
+    private final byte[] pageStates = new byte[MemoryMap.PAGE_COUNT];
+    private final List<PageWriteListener> pageWriteListeners = new CopyOnWriteArrayList<>();
+
+    @Getter
+    private volatile long committedBytes = 0;
+    @Getter
+    private long commitLimit = Long.MAX_VALUE;
+
+    // Sees every device read, e.g. to record or replay them
+    @Nullable
+    @Setter
+    private MmioReadHook mmioReadHook;
+
+    // Device reads and writes by every core, for the performance counters
+    private final LongAdder mmioAccesses = new LongAdder();
+
+    // Accesses only look for watchpoints while there are any, and only on pages holding one.
+    // The debugger replaces watchedPages and then writes watching, so a core that reads
+    // watching (volatile) afterwards also sees the new pages
+    private final List<Watchpoint> watchpoints = new CopyOnWriteArrayList<>();
+    private boolean[] watchedPages = new boolean[MemoryMap.PAGE_COUNT];
+    private volatile boolean watching = false;
+    // Set while the thread runs a core, so viewers, snapshots and loaders never hit watchpoints
+    private final ThreadLocal<Boolean> watchedThread = ThreadLocal.withInitial(() -> false);
+
+    // Single-writer mode, see setSingleWriter. Page versions are odd while the writer changes the page
+    private static final VarHandle VERSIONS = MethodHandles.arrayElementVarHandle(int[].class);
+    private volatile boolean singleWriter = false;
+    // Plain, so scalar accesses pay no volatile read: only the writer's own thread sets it to itself,
+    // between slices (claimWriter, releaseWriter), so no other thread ever finds itself here
+    @Nullable
+    private Thread writer;
+    private final int[] pageVersions = new int[MemoryMap.PAGE_COUNT];
+
+    /** Framebuffer dirty tracking granularity: 16 text cells or pixels */
+    public static final int FB_CHUNK_SHIFT = 6;
+    public static final int FB_CHUNK_SIZE = 1 << FB_CHUNK_SHIFT;
+    private static final VarHandle DIRTY = MethodHandles.arrayElementVarHandle(long[].class);
+    // A bit per chunk, see takeFramebufferDirty; all set at first so the first frame is drawn whole
+    private final long[] framebufferDirty = new long[(int) (MemoryMap.FB_SIZE >>> FB_CHUNK_SHIFT >>> 6)];
+
     public Memory(IODeviceManager ioDeviceManager) {
+        this(ioDeviceManager, MemoryStorage.paged(MemoryMap.TOTAL_SIZE));
+    }
+
+    public Memory(IODeviceManager ioDeviceManager, MemoryStorage storage) {
         this.ioDeviceManager = Objects.requireNonNull(ioDeviceManager,
                 "IODeviceManager cannot be null");
+        this.storage = Objects.requireNonNull(storage, "Storage cannot be null");
 
-        if (MemoryMap.TOTAL_SIZE > Integer.MAX_VALUE) {
-            throw new IllegalStateException(
-                    "Memory size too large: " + MemoryMap.TOTAL_SIZE);
+        if (storage.size() < MemoryMap.TOTAL_SIZE) {
+            throw new IllegalArgumentException(
+                    "Storage too small: " + storage.size() + " of " + MemoryMap.TOTAL_SIZE + " bytes");
         }
-
-        this.buffer = ByteBuffer.allocate((int) MemoryMap.TOTAL_SIZE)
-                .order(ByteOrder.LITTLE_ENDIAN);
+        Arrays.fill(framebufferDirty, -1L);
     }
 
-    private int toInt(long address) {
+    private long checkAddress(long address) {
         if (address < 0 || address >= MemoryMap.TOTAL_SIZE) {
             throw new MemoryException("Invalid address: 0x" + Long.toHexString(address));
         }
-        return (int) address;
+        return address;
+    }
+
+    /*—— Region classification —————————*/
+    // ROM and RAM are contiguous from 0, so one unsigned compare finds a read
+    // that touches neither MMIO nor bad addresses, and likewise RAM for a
+    // write; everything else takes the checked path
+
+    private static boolean isPlainRead(long address, int size) {
+        return Long.compareUnsigned(address, MemoryMap.RAM_END - size) <= 0;
+    }
+
+    // Committed, untracked RAM within one page: nothing to check before the store or report after it
+    private boolean isPlainWrite(long address, int size) {
+        return Long.compareUnsigned(address - MemoryMap.RAM_BASE, MemoryMap.RAM_SIZE - size) <= 0
+                && (address & MemoryMap.PAGE_MASK) <= MemoryMap.PAGE_SIZE - size
+                && pageStates[MemoryMap.pageOf(address)] == PAGE_COMMITTED;
     }
 
     private void validateRange(long address, int size) {
@@ -50,16 +121,306 @@ public class Memory {
         if (address < MemoryMap.ROM_END && address + size > MemoryMap.ROM_BASE) {
             throw new MemoryException("Cannot write to ROM: " + Long.toHexString(address));
         }
+        if (size > 0 && address >= 0 && address <= MemoryMap.TOTAL_SIZE - size) {
+            commitPages(address, size);
+        }
     }
 
-    private MmioResult handleMmioRead(long address, int size) {
-        if (!MemoryMap.isMmioAddress(address)) return MmioResult.NOT_HANDLED;
+    /*—— Commit accounting —————————*/
 
-        IODevice device = ioDeviceManager.getDeviceByAddress(address);
-        if (device == null) return MmioResult.NOT_HANDLED;
+    /** Caps the bytes of RAM and framebuffer pages the guest may touch */
+    public void setCommitLimit(long bytes) {
+        if (bytes < 0) throw new IllegalArgumentException("Commit limit cannot be negative");
+        commitLimit = bytes;
+    }
+
+    /** Committed bytes in pages still shared with a SharedImage (see writeShared), so not held by this VM alone */
+    public long getSharedBytes() {
+        return storage.sharedBytes(MemoryMap.RAM_BASE, MemoryMap.RAM_SIZE)
+                + storage.sharedBytes(MemoryMap.FB_BASE, MemoryMap.FB_SIZE);
+    }
+
+    /** Whether the guest has written to the page; untouched pages are still all zero */
+    public boolean isPageCommitted(int page) {
+        return (pageStates[page] & PAGE_COMMITTED) != 0;
+    }
+
+    // Runs before the write lands, so a write over the quota has no effect
+    private void commitPages(long address, int size) {
+        int first = MemoryMap.pageOf(address);
+        int last = MemoryMap.pageOf(address + size - 1);
+        if (first == last && (pageStates[first] & PAGE_COMMITTED) != 0) return;
+
+        long added = 0;
+        for (int page = first; page <= last; page++) {
+            if ((pageStates[page] & PAGE_COMMITTED) == 0 && !MemoryMap.isMmioAddress(MemoryMap.pageBase(page))) {
+                added += MemoryMap.PAGE_SIZE;
+            }
+        }
+        if (committedBytes + added > commitLimit) {
+            throw new MemoryException(String.format("Memory quota exceeded: %d of %d bytes committed",
+                    committedBytes, commitLimit));
+        }
+        for (int page = first; page <= last; page++) {
+            pageStates[page] |= PAGE_COMMITTED;
+        }
+        committedBytes += added;
+    }
+
+    // Page write tracking
+    public void addPageWriteListener(PageWriteListener listener) {
+        pageWriteListeners.add(Objects.requireNonNull(listener, "Listener cannot be null"));
+    }
+
+    public void removePageWriteListener(PageWriteListener listener) {
+        pageWriteListeners.remove(listener);
+    }
+
+    public void trackPage(int page) {
+        // Locked so a core tracking code sees, and is seen by, writes from other cores
+        long stamp = lock.writeLock();
+        try {
+            pageStates[page] |= PAGE_TRACKED;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void pagesWritten(long address, int size) {
+        if (address + size > MemoryMap.FB_BASE) framebufferWritten(address, size);
+        int first = MemoryMap.pageOf(address);
+        int last = MemoryMap.pageOf(address + size - 1);
+        for (int page = first; page <= last; page++) {
+            if ((pageStates[page] & PAGE_TRACKED) != 0) {
+                pageStates[page] &= ~PAGE_TRACKED;
+                for (PageWriteListener listener : pageWriteListeners) {
+                    listener.onPageWrite(page);
+                }
+            }
+        }
+    }
+
+    /*—— Framebuffer dirty tracking —————————*/
+
+    /**
+     * Takes the chunks among the first length bytes of the framebuffer that
+     * were written since the last take: bit i stands for the FB_CHUNK_SIZE
+     * bytes at FB_BASE + i * FB_CHUNK_SIZE. Their bits are cleared, so there
+     * is one taker, the viewer. Read the chunks after taking them; a write
+     * racing with the read is taken again next time.
+     */
+    public BitSet takeFramebufferDirty(int length) {
+        if (length < 0 || length > MemoryMap.FB_SIZE) {
+            throw new IllegalArgumentException("Framebuffer length out of range: " + length);
+        }
+        int chunks = (length + FB_CHUNK_SIZE - 1) >>> FB_CHUNK_SHIFT;
+        long[] words = new long[(chunks + 63) >>> 6];
+        for (int i = 0; i < words.length; i++) {
+            long mask = i < words.length - 1 || chunks % 64 == 0 ? -1L : (1L << chunks % 64) - 1;
+            words[i] = (long) DIRTY.getAndBitwiseAnd(framebufferDirty, i, ~mask) & mask;
+        }
+        return BitSet.valueOf(words);
+    }
+
+    // After the store: an atomic set, so one that races with a take is either taken or kept for the next
+    private void framebufferWritten(long address, int size) {
+        long first = (Math.max(address, MemoryMap.FB_BASE) - MemoryMap.FB_BASE) >>> FB_CHUNK_SHIFT;
+        long last = (address + size - 1 - MemoryMap.FB_BASE) >>> FB_CHUNK_SHIFT;
+        for (long chunk = first; chunk <= last; chunk = (chunk | 63) + 1) {
+            long mask = -1L << chunk;
+            if (last >>> 6 == chunk >>> 6) mask &= -1L >>> 63 - (last & 63);
+            DIRTY.getAndBitwiseOr(framebufferDirty, (int) (chunk >>> 6), mask);
+        }
+    }
+
+    /*—— Single-writer mode —————————*/
+
+    /**
+     * In single-writer mode the thread running the core, see claimWriter,
+     * does its scalar reads and writes without locking. Other threads read
+     * under the read lock and retry while the writer changes a page they
+     * read, so viewers still get consistent values. Bulk and atomic
+     * operations keep locking.
+     * .
+     * Only for a single running core: other threads must not write while it
+     * runs. SmpDevice leaves the mode when a second core starts. Switch only
+     * while no core runs, or from the thread running the only core.
+     */
+    public void setSingleWriter(boolean singleWriter) {
+        this.singleWriter = singleWriter;
+        if (!singleWriter) writer = null;
+    }
+
+    public boolean isSingleWriter() {
+        return singleWriter;
+    }
+
+    /** Makes the calling thread the single writer, if in that mode; Cpu.run calls it before each slice */
+    public void claimWriter() {
+        writer = singleWriter ? Thread.currentThread() : null;
+    }
+
+    /** Ends claimWriter, so the thread locks like any other until it runs the core again; after each slice */
+    public void releaseWriter() {
+        if (writer == Thread.currentThread()) writer = null;
+    }
+
+    private boolean isWriter() {
+        return writer == Thread.currentThread();
+    }
+
+    // Seqlock write side, around the writer's unlocked stores; out of range stores fault without a version change
+    private void beginWrite(long address, int size) {
+        if (address < 0 || address > MemoryMap.TOTAL_SIZE - size) return;
+        int first = MemoryMap.pageOf(address);
+        int last = MemoryMap.pageOf(address + size - 1);
+        VERSIONS.setOpaque(pageVersions, first, pageVersions[first] + 1);
+        if (last != first) VERSIONS.setOpaque(pageVersions, last, pageVersions[last] + 1);
+        VarHandle.storeStoreFence();
+    }
+
+    private void endWrite(long address, int size) {
+        if (address < 0 || address > MemoryMap.TOTAL_SIZE - size) return;
+        int first = MemoryMap.pageOf(address);
+        int last = MemoryMap.pageOf(address + size - 1);
+        VERSIONS.setRelease(pageVersions, first, pageVersions[first] + 1);
+        if (last != first) VERSIONS.setRelease(pageVersions, last, pageVersions[last] + 1);
+    }
+
+    private int stableVersion(int page) {
+        int version;
+        while (((version = (int) VERSIONS.getAcquire(pageVersions, page)) & 1) != 0) {
+            Thread.onSpinWait();
+        }
+        return version;
+    }
+
+    private boolean unchanged(int page, int version) {
+        VarHandle.loadLoadFence();
+        return (int) VERSIONS.getAcquire(pageVersions, page) == version;
+    }
+
+    /**
+     * Seqlock read side for threads other than the writer: repeats the read
+     * until no page it touched changed meanwhile. Locked writers are kept out
+     * by the read lock, so this also holds while the mode is switched off.
+     */
+    private long readObserved(long address, int size, ReadFunction readFunc) {
+        long stamp = lock.readLock();
+        try {
+            if (MemoryMap.isMmioAddress(address) || address < 0 || address > MemoryMap.TOTAL_SIZE - size) {
+                return readFunc.read(address); // device reads happen once, bad addresses fault
+            }
+            int first = MemoryMap.pageOf(address);
+            int last = MemoryMap.pageOf(address + size - 1);
+            while (true) {
+                int firstVersion = stableVersion(first);
+                int lastVersion = stableVersion(last);
+                long result = readFunc.read(address);
+                if (unchanged(first, firstVersion) && unchanged(last, lastVersion)) return result;
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /*—— Watchpoints —————————*/
+
+    /**
+     * Makes cores stop before accessing the range, see RunState.BREAKPOINT.
+     * Only the scalar, block and atomic accesses of threads running a core
+     * are watched; bulk copies and other threads' accesses never stop anything.
+     */
+    public void addWatchpoint(Watchpoint watchpoint) {
+        synchronized (watchpoints) {
+            watchpoints.add(Objects.requireNonNull(watchpoint, "Watchpoint cannot be null"));
+            updateWatchedPages();
+        }
+    }
+
+    public void removeWatchpoint(Watchpoint watchpoint) {
+        synchronized (watchpoints) {
+            watchpoints.remove(watchpoint);
+            updateWatchedPages();
+        }
+    }
+
+    public void clearWatchpoints() {
+        synchronized (watchpoints) {
+            watchpoints.clear();
+            updateWatchedPages();
+        }
+    }
+
+    public List<Watchpoint> getWatchpoints() {
+        return List.copyOf(watchpoints);
+    }
+
+    /** Whether the calling thread's accesses are watched; Cpu.run sets it for each slice */
+    public void setWatchedThread(boolean watched) {
+        watchedThread.set(watched);
+    }
+
+    // A new array rather than clearing the old one, so running cores never miss a page still watched
+    private void updateWatchedPages() {
+        boolean[] pages = new boolean[MemoryMap.PAGE_COUNT];
+        for (Watchpoint watchpoint : watchpoints) {
+            int first = MemoryMap.pageOf(watchpoint.start());
+            int last = MemoryMap.pageOf(watchpoint.end() - 1);
+            Arrays.fill(pages, first, last + 1, true);
+        }
+        watchedPages = pages;
+        watching = !watchpoints.isEmpty();
+    }
+
+    private void checkWatchpoints(long address, int size, boolean write) {
+        if (address < 0 || address > MemoryMap.TOTAL_SIZE - size) return; // the access itself faults
+        boolean[] pages = watchedPages;
+        if (!pages[MemoryMap.pageOf(address)] && !pages[MemoryMap.pageOf(address + size - 1)]) return;
+        if (!watchedThread.get()) return;
+        for (Watchpoint watchpoint : watchpoints) {
+            if (watchpoint.matches(address, size, write)) {
+                throw new WatchpointHit(watchpoint, address, size, write);
+            }
+        }
+    }
+
+    // Every watchpoint the block overlaps, not just those on its first and last pages
+    private void checkBlockWatchpoints(long address, int size, boolean write) {
+        if (address < 0 || address > MemoryMap.TOTAL_SIZE - size) return; // the access itself faults
+        if (!watchedThread.get()) return;
+        for (Watchpoint watchpoint : watchpoints) {
+            if (watchpoint.matches(address, size, write)) {
+                throw new WatchpointHit(watchpoint, address, size, write);
+            }
+        }
+    }
+
+    private void checkAtomicWatchpoints(long address) {
+        checkWatchpoints(address, Long.BYTES, false);
+        checkWatchpoints(address, Long.BYTES, true);
+    }
+
+    /** Device reads and writes since boot, by all cores */
+    public long getMmioAccesses() {
+        return mmioAccesses.sum();
+    }
+
+    /** Restarts the MMIO access count at value, e.g. when restoring a snapshot */
+    public void setMmioAccesses(long value) {
+        mmioAccesses.reset();
+        mmioAccesses.add(value);
+    }
 
+    // Allocation-free: the caller looked the device up, and a plain value comes back
+    private long readMmio(IODevice device, long address, int size) {
+        mmioAccesses.increment();
         long deviceOffset = address - device.getBaseAdress();
-        return new MmioResult(true, device.handleRead(deviceOffset, size));
+        MmioReadHook hook = mmioReadHook;
+        if (hook != null) {
+            return hook.onRead(address, size, () -> device.handleRead(deviceOffset, size));
+        }
+        return device.handleRead(deviceOffset, size);
     }
 
     private boolean handleMmioWrite(long address, long value) {
@@ -68,28 +429,66 @@ public class Memory {
         IODevice device = ioDeviceManager.getDeviceByAddress(address);
         if (device == null) return true; // Ignore writes to unmapped MMIO
 
+        mmioAccesses.increment();
         long deviceOffset = address - device.getBaseAdress();
         return device.handleWrite(deviceOffset, value);
     }
 
     // Read operations
     public byte readByte(long address) {
-        return (byte) readWithLock(address, this::readByteUnsafe);
+        if (watching) checkWatchpoints(address, Byte.BYTES, false);
+        if (isWriter()) return (byte) readByteUnsafe(address);
+        return (byte) readWithLock(address, Byte.BYTES, this::readByteUnsafe);
     }
 
     public short readShort(long address) {
-        return (short) readWithLock(address, this::readShortUnsafe);
+        if (watching) checkWatchpoints(address, Short.BYTES, false);
+        if (isWriter()) return (short) readShortUnsafe(address);
+        return (short) readWithLock(address, Short.BYTES, this::readShortUnsafe);
     }
 
     public int readInt(long address) {
-        return (int) readWithLock(address, this::readIntUnsafe);
+        if (watching) checkWatchpoints(address, Integer.BYTES, false);
+        if (isWriter()) return (int) readIntUnsafe(address);
+        return (int) readWithLock(address, Integer.BYTES, this::readIntUnsafe);
     }
 
     public long readLong(long address) {
-        return readWithLock(address, this::readLongUnsafe);
-    }
+        if (watching) checkWatchpoints(address, Long.BYTES, false);
+        if (isWriter()) return readLongUnsafe(address);
+        return readWithLock(address, Long.BYTES, this::readLongUnsafe);
+    }
+
+    /** Reads 1, 4 or 8 bytes like the sized reads, but never hits a watchpoint; for debugger bookkeeping */
+    public long peek(long address, int size) {
+        if (isWriter()) {
+            return switch (size) {
+                case Long.BYTES -> readLongUnsafe(address);
+                case Integer.BYTES -> (int) readIntUnsafe(address);
+                case Byte.BYTES -> (byte) readByteUnsafe(address);
+                default -> throw new MemoryException("Invalid access size: " + size);
+            };
+        }
+        return switch (size) {
+            case Long.BYTES -> readWithLock(address, size, this::readLongUnsafe);
+            case Integer.BYTES -> (int) readWithLock(address, size, this::readIntUnsafe);
+            case Byte.BYTES -> (byte) readWithLock(address, size, this::readByteUnsafe);
+            default -> throw new MemoryException("Invalid access size: " + size);
+        };
+    }
+
+    private long readWithLock(long address, int size, ReadFunction readFunc) {
+        if (singleWriter) return readObserved(address, size, readFunc);
+        if (MemoryMap.isMmioAddress(address)) {
+            // Device reads must happen exactly once, so no optimistic attempt that may be retried
+            long stamp = lock.readLock();
+            try {
+                return readFunc.read(address);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
 
-    private long readWithLock(long address, ReadFunction readFunc) {
         long stamp = lock.tryOptimisticRead();
         long result = readFunc.read(address);
 
@@ -105,30 +504,34 @@ public class Memory {
     }
 
     private long readByteUnsafe(long address) {
-        MmioResult mmio = handleMmioRead(address, Byte.BYTES);
-        if (mmio.handled) return mmio.value & 0xFF;
-        return buffer.get(toInt(address)) & 0xFF;
+        if (isPlainRead(address, Byte.BYTES)) return storage.getByte(address) & 0xFF;
+        IODevice device = ioDeviceManager.getDeviceByAddress(address);
+        if (device != null) return readMmio(device, address, Byte.BYTES) & 0xFF;
+        return storage.getByte(checkAddress(address)) & 0xFF;
     }
 
     private long readShortUnsafe(long address) {
+        if (isPlainRead(address, Short.BYTES)) return storage.getShort(address) & 0xFFFF;
         validateRange(address, Short.BYTES);
-        MmioResult mmio = handleMmioRead(address, Short.BYTES);
-        if (mmio.handled) return mmio.value & 0xFFFF;
-        return buffer.getShort(toInt(address)) & 0xFFFF;
+        IODevice device = ioDeviceManager.getDeviceByAddress(address);
+        if (device != null) return readMmio(device, address, Short.BYTES) & 0xFFFF;
+        return storage.getShort(address) & 0xFFFF;
     }
 
     private long readIntUnsafe(long address) {
+        if (isPlainRead(address, Integer.BYTES)) return storage.getInt(address);
         validateRange(address, Integer.BYTES);
-        MmioResult mmio = handleMmioRead(address, Integer.BYTES);
-        if (mmio.handled) return mmio.value;
-        return buffer.getInt(toInt(address));
+        IODevice device = ioDeviceManager.getDeviceByAddress(address);
+        if (device != null) return readMmio(device, address, Integer.BYTES);
+        return storage.getInt(address);
     }
 
     private long readLongUnsafe(long address) {
+        if (isPlainRead(address, Long.BYTES)) return storage.getLong(address);
         validateRange(address, Long.BYTES);
-        MmioResult mmio = handleMmioRead(address, Long.BYTES);
-        if (mmio.handled) return mmio.value;
-        return buffer.getLong(toInt(address));
+        IODevice device = ioDeviceManager.getDeviceByAddress(address);
+        if (device != null) return readMmio(device, address, Long.BYTES);
+        return storage.getLong(address);
     }
 
     public void readBytes(long address, byte[] dest, int offset, int length) {
@@ -140,20 +543,44 @@ public class Memory {
 
         long stamp = lock.readLock();
         try {
-            readBytesUnsafe(address, dest, offset, length);
+            if (singleWriter && !isWriter()) {
+                readBytesObserved(address, dest, offset, length);
+            } else {
+                readBytesUnsafe(address, dest, offset, length);
+            }
         } finally {
             lock.unlockRead(stamp);
         }
     }
 
+    // Single-writer mode: page by page, each copied again if the writer changed it meanwhile
+    private void readBytesObserved(long address, byte[] dest, int offset, int length) {
+        validateRange(address, length);
+        if (MemoryMap.isMmioAddress(address) || MemoryMap.isMmioAddress(address + length - 1)) {
+            readBytesUnsafe(address, dest, offset, length);
+            return;
+        }
+        while (length > 0) {
+            int page = MemoryMap.pageOf(address);
+            int part = (int) Math.min(length, MemoryMap.pageBase(page) + MemoryMap.PAGE_SIZE - address);
+            int version;
+            do {
+                version = stableVersion(page);
+                storage.copyOut(address, dest, offset, part);
+            } while (!unchanged(page, version));
+            address += part;
+            offset += part;
+            length -= part;
+        }
+    }
+
     private void readBytesUnsafe(long address, byte[] dest, int offset, int length) {
         validateRange(address, length);
 
         if (!MemoryMap.isMmioAddress(address) &&
                 !MemoryMap.isMmioAddress(address + length - 1)) {
             // Fast path: Entire block in normal memory
-            int memOffset = toInt(address);
-            System.arraycopy(buffer.array(), memOffset, dest, offset, length);
+            storage.copyOut(address, dest, offset, length);
         } else {
             // Slow path: MMIO region
             for (int i = 0; i < length; i++) {
@@ -164,6 +591,16 @@ public class Memory {
 
     // Write operations
     public void writeByte(long address, byte value) {
+        if (watching) checkWatchpoints(address, Byte.BYTES, true);
+        if (isWriter()) {
+            beginWrite(address, Byte.BYTES);
+            try {
+                writeByteUnsafe(address, value);
+            } finally {
+                endWrite(address, Byte.BYTES);
+            }
+            return;
+        }
         long stamp = lock.writeLock();
         try {
             writeByteUnsafe(address, value);
@@ -173,6 +610,16 @@ public class Memory {
     }
 
     public void writeShort(long address, short value) {
+        if (watching) checkWatchpoints(address, Short.BYTES, true);
+        if (isWriter()) {
+            beginWrite(address, Short.BYTES);
+            try {
+                writeShortUnsafe(address, value);
+            } finally {
+                endWrite(address, Short.BYTES);
+            }
+            return;
+        }
         long stamp = lock.writeLock();
         try {
             writeShortUnsafe(address, value);
@@ -182,6 +629,16 @@ public class Memory {
     }
 
     public void writeInt(long address, int value) {
+        if (watching) checkWatchpoints(address, Integer.BYTES, true);
+        if (isWriter()) {
+            beginWrite(address, Integer.BYTES);
+            try {
+                writeIntUnsafe(address, value);
+            } finally {
+                endWrite(address, Integer.BYTES);
+            }
+            return;
+        }
         long stamp = lock.writeLock();
         try {
             writeIntUnsafe(address, value);
@@ -191,6 +648,16 @@ public class Memory {
     }
 
     public void writeLong(long address, long value) {
+        if (watching) checkWatchpoints(address, Long.BYTES, true);
+        if (isWriter()) {
+            beginWrite(address, Long.BYTES);
+            try {
+                writeLongUnsafe(address, value);
+            } finally {
+                endWrite(address, Long.BYTES);
+            }
+            return;
+        }
         long stamp = lock.writeLock();
         try {
             writeLongUnsafe(address, value);
@@ -200,33 +667,53 @@ public class Memory {
     }
 
     private void writeByteUnsafe(long address, byte value) {
+        if (isPlainWrite(address, Byte.BYTES)) {
+            storage.putByte(address, value);
+            return;
+        }
         validateWrite(address, Byte.BYTES);
         if (!handleMmioWrite(address, value & 0xFF)) {
-            buffer.put(toInt(address), value);
+            storage.putByte(checkAddress(address), value);
+            pagesWritten(address, Byte.BYTES);
         }
     }
 
     private void writeShortUnsafe(long address, short value) {
+        if (isPlainWrite(address, Short.BYTES)) {
+            storage.putShort(address, value);
+            return;
+        }
         validateWrite(address, Short.BYTES);
         validateRange(address, Short.BYTES);
         if (!handleMmioWrite(address, value & 0xFFFF)) {
-            buffer.putShort(toInt(address), value);
+            storage.putShort(address, value);
+            pagesWritten(address, Short.BYTES);
         }
     }
 
     private void writeIntUnsafe(long address, int value) {
+        if (isPlainWrite(address, Integer.BYTES)) {
+            storage.putInt(address, value);
+            return;
+        }
         validateWrite(address, Integer.BYTES);
         validateRange(address, Integer.BYTES);
         if (!handleMmioWrite(address, value)) {
-            buffer.putInt(toInt(address), value);
+            storage.putInt(address, value);
+            pagesWritten(address, Integer.BYTES);
         }
     }
 
     private void writeLongUnsafe(long address, long value) {
+        if (isPlainWrite(address, Long.BYTES)) {
+            storage.putLong(address, value);
+            return;
+        }
         validateWrite(address, Long.BYTES);
         validateRange(address, Long.BYTES);
         if (!handleMmioWrite(address, value)) {
-            buffer.putLong(toInt(address), value);
+            storage.putLong(address, value);
+            pagesWritten(address, Long.BYTES);
         }
     }
 
@@ -252,8 +739,8 @@ public class Memory {
         if (!MemoryMap.isMmioAddress(address) &&
                 !MemoryMap.isMmioAddress(address + length - 1)) {
             // Fast path: Entire block in normal memory
-            int memOffset = toInt(address);
-            System.arraycopy(src, offset, buffer.array(), memOffset, length);
+            storage.copyIn(address, src, offset, length);
+            pagesWritten(address, length);
         } else {
             // Slow path: MMIO region
             for (int i = 0; i < length; i++) {
@@ -262,6 +749,34 @@ public class Memory {
         }
     }
 
+    /**
+     * Writes an image like writeBytes, at a page-aligned address. The storage
+     * may map the image's pages in copy-on-write instead of copying them, see
+     * SharedImage; they count as committed all the same.
+     */
+    public void writeShared(long address, SharedImage image) {
+        Objects.requireNonNull(image, "Image is null");
+        if ((address & MemoryMap.PAGE_MASK) != 0) {
+            throw new MemoryException("Shared image not page aligned: 0x" + Long.toHexString(address));
+        }
+        int length = image.length();
+        if (length == 0) return;
+
+        long stamp = lock.writeLock();
+        try {
+            if (MemoryMap.overlapsMmio(address, length)) {
+                writeBytesUnsafe(address, image.bytes(), 0, length);
+                return;
+            }
+            validateWrite(address, length);
+            validateRange(address, length);
+            storage.copyInShared(address, image);
+            pagesWritten(address, length);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
     public void fill(long address, int length, byte value) {
         if (length <= 0) return;
 
@@ -273,9 +788,8 @@ public class Memory {
             if (!MemoryMap.isMmioAddress(address) &&
                     !MemoryMap.isMmioAddress(address + length - 1)) {
                 // Fast path: Entire block in normal memory
-                int memOffset = toInt(address);
-                byte[] array = buffer.array();
-                Arrays.fill(array, memOffset, memOffset + length, value);
+                storage.fill(address, length, value);
+                pagesWritten(address, length);
             } else {
                 // Slow path: MMIO region
                 for (int i = 0; i < length; i++) {
@@ -287,16 +801,141 @@ public class Memory {
         }
     }
 
+    /*—— Block operations —————————*/
+    // The guest's MEMCPY, MEMSET and MEMCMP: watched like scalar accesses, one lock hold,
+    // bulk copies in plain memory and byte by byte wherever a device is involved
+
+    /** Copies length bytes from src to dest; the ranges may overlap, as with memmove */
+    public void copyBlock(long dest, long src, long length) {
+        int size = blockSize(length);
+        if (size == 0) return;
+        if (watching) {
+            checkBlockWatchpoints(src, size, false);
+            checkBlockWatchpoints(dest, size, true);
+        }
+
+        long stamp = lock.writeLock();
+        try {
+            validateRange(src, size);
+            validateWrite(dest, size);
+            validateRange(dest, size);
+            if (!MemoryMap.overlapsMmio(src, size) && !MemoryMap.overlapsMmio(dest, size)) {
+                storage.move(src, dest, size);
+                pagesWritten(dest, size);
+            } else if (dest <= src) {
+                for (int i = 0; i < size; i++) {
+                    writeByteUnsafe(dest + i, (byte) readByteUnsafe(src + i));
+                }
+            } else {
+                for (int i = size - 1; i >= 0; i--) {
+                    writeByteUnsafe(dest + i, (byte) readByteUnsafe(src + i));
+                }
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void fillBlock(long address, long length, byte value) {
+        int size = blockSize(length);
+        if (size == 0) return;
+        if (watching) checkBlockWatchpoints(address, size, true);
+        fill(address, size, value);
+    }
+
+    /**
+     * Compares length bytes at first and second as unsigned bytes, like
+     * memcmp: -1, 0 or 1 as first is less, equal or greater. Device bytes
+     * are read one at a time, and none past the first difference.
+     */
+    public long compareBlocks(long first, long second, long length) {
+        int size = blockSize(length);
+        if (size == 0) return 0;
+        if (watching) {
+            checkBlockWatchpoints(first, size, false);
+            checkBlockWatchpoints(second, size, false);
+        }
+
+        long stamp = lock.readLock();
+        try {
+            validateRange(first, size);
+            validateRange(second, size);
+            if (MemoryMap.overlapsMmio(first, size) || MemoryMap.overlapsMmio(second, size)) {
+                for (int i = 0; i < size; i++) {
+                    int difference = Long.compare(readByteUnsafe(first + i), readByteUnsafe(second + i));
+                    if (difference != 0) return difference;
+                }
+                return 0;
+            }
+            int i = storage.mismatch(first, second, size);
+            return i < 0 ? 0 : Integer.compare(storage.getByte(first + i) & 0xFF, storage.getByte(second + i) & 0xFF);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // A guest length register as a block size; more than Integer.MAX_VALUE is past the end of memory anyway
+    private static int blockSize(long length) {
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new MemoryException("Invalid block length: " + length);
+        }
+        return (int) length;
+    }
+
+    /*—— Atomic operations —————————*/
+    // Atomic with respect to every other access, since all writes hold the write lock
+
+    /** @return the previous value; value is only stored if it equalled expected */
+    public long compareAndSwapLong(long address, long expected, long value) {
+        if (watching) checkAtomicWatchpoints(address);
+        long stamp = lock.writeLock();
+        try {
+            long current = readAtomicTarget(address);
+            if (current == expected) {
+                writeLongUnsafe(address, value);
+            }
+            return current;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /** @return the previous value */
+    public long getAndAddLong(long address, long delta) {
+        if (watching) checkAtomicWatchpoints(address);
+        long stamp = lock.writeLock();
+        try {
+            long current = readAtomicTarget(address);
+            writeLongUnsafe(address, current + delta);
+            return current;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private long readAtomicTarget(long address) {
+        validateRange(address, Long.BYTES);
+        if (MemoryMap.isMmioAddress(address)) {
+            throw new MemoryException("Atomic access to MMIO: 0x" + Long.toHexString(address));
+        }
+        return storage.getLong(address);
+    }
+
     public void initializeROM(byte[] romData) {
-        Objects.requireNonNull(romData, "ROM data is null");
-        if (romData.length > MemoryMap.ROM_SIZE) {
+        initializeROM(SharedImage.of(Objects.requireNonNull(romData, "ROM data is null")));
+    }
+
+    /** Places the ROM, sharing its pages with every other VM given the same image */
+    public void initializeROM(SharedImage rom) {
+        Objects.requireNonNull(rom, "ROM image is null");
+        if (rom.length() > MemoryMap.ROM_SIZE) {
             throw new MemoryException("ROM data too large");
         }
 
         long stamp = lock.writeLock();
         try {
             if (initialized) throw new MemoryException("ROM already initialized");
-            System.arraycopy(romData, 0, buffer.array(), 0, romData.length);
+            storage.copyInShared(MemoryMap.ROM_BASE, rom);
             initialized = true;
         } finally {
             lock.unlockWrite(stamp);
@@ -309,10 +948,6 @@ public class Memory {
         long read(long address);
     }
 
-    private record MmioResult(boolean handled, long value) {
-        static final MmioResult NOT_HANDLED = new MmioResult(false, 0);
-    }
-
     public static class MemoryException extends RuntimeException {
         public MemoryException(String message) {
             super(message);
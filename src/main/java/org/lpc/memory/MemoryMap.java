@@ -30,6 +30,12 @@ public final class MemoryMap {
     // Total memory size
     public static final long TOTAL_SIZE = ROM_SIZE + RAM_SIZE + MMIO_SIZE + FB_SIZE;
 
+    // Page granularity used for decoded-code caching and write tracking
+    public static final int PAGE_SHIFT = 12;                             // 4 KB pages
+    public static final long PAGE_SIZE = 1L << PAGE_SHIFT;
+    public static final long PAGE_MASK = PAGE_SIZE - 1;
+    public static final int PAGE_COUNT = (int) (TOTAL_SIZE >>> PAGE_SHIFT);
+
     public static boolean isRomAddress(long address) {
         return address >= ROM_BASE && address < ROM_END;
     }
@@ -42,6 +48,11 @@ public final class MemoryMap {
         return address >= MMIO_BASE && address < MMIO_END;
     }
 
+    /** Whether any of the size bytes from address lie in the MMIO window */
+    public static boolean overlapsMmio(long address, long size) {
+        return address < MMIO_END && address + size > MMIO_BASE;
+    }
+
     public static boolean isFramebufferAddress(long address) {
         return address >= FB_BASE && address < FB_END;
     }
@@ -49,4 +60,12 @@ public final class MemoryMap {
     public static boolean isValidAddress(long address) {
         return address >= 0 && address < TOTAL_SIZE;
     }
+
+    public static int pageOf(long address) {
+        return (int) (address >>> PAGE_SHIFT);
+    }
+
+    public static long pageBase(int page) {
+        return (long) page << PAGE_SHIFT;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,106 @@
+package org.lpc.memory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * The bytes behind guest memory, little-endian and addressed from 0.
+ * Memory validates addresses and handles locking, MMIO and ROM before it
+ * gets here, so implementations only store bytes and never check ranges
+ * beyond what their own indexing needs.
+ */
+public interface MemoryStorage {
+    /** Bytes held, at least MemoryMap.TOTAL_SIZE for a VM's memory */
+    long size();
+
+    byte getByte(long address);
+
+    short getShort(long address);
+
+    int getInt(long address);
+
+    long getLong(long address);
+
+    void putByte(long address, byte value);
+
+    void putShort(long address, short value);
+
+    void putInt(long address, int value);
+
+    void putLong(long address, long value);
+
+    void copyOut(long address, byte[] dest, int offset, int length);
+
+    void copyIn(long address, byte[] src, int offset, int length);
+
+    void fill(long address, int length, byte value);
+
+    /**
+     * Stores the image at a page-aligned address like copyIn. Storages that
+     * can map its pages into place copy-on-write instead, see SharedImage.
+     */
+    default void copyInShared(long address, SharedImage image) {
+        copyIn(address, image.bytes(), 0, image.length());
+    }
+
+    /** Bytes of the page-aligned range held in pages shared with a SharedImage rather than by this storage */
+    default long sharedBytes(long address, long length) {
+        return 0;
+    }
+
+    /**
+     * Offset of the first byte that differs between the length bytes at first
+     * and second, -1 if none does; like Arrays.mismatch, and without allocating
+     */
+    default int mismatch(long first, long second, int length) {
+        int i = 0;
+        for (; i <= length - Long.BYTES; i += Long.BYTES) {
+            long difference = getLong(first + i) ^ getLong(second + i);
+            if (difference != 0) return i + (Long.numberOfTrailingZeros(difference) >>> 3); // little-endian
+        }
+        for (; i < length; i++) {
+            if (getByte(first + i) != getByte(second + i)) return i;
+        }
+        return -1;
+    }
+
+    /** Copies length bytes from src to dest; the ranges may overlap, as with memmove */
+    default void move(long src, long dest, int length) {
+        byte[] buffer = new byte[Math.min(length, 1 << 16)];
+        if (dest <= src || dest >= src + length) {
+            for (int done = 0; done < length; done += buffer.length) {
+                int part = Math.min(buffer.length, length - done);
+                copyOut(src + done, buffer, 0, part);
+                copyIn(dest + done, buffer, 0, part);
+            }
+        } else {
+            // dest lies inside the source, so copy from the end down
+            for (int left = length; left > 0; left -= buffer.length) {
+                int part = Math.min(buffer.length, left);
+                copyOut(src + left - part, buffer, 0, part);
+                copyIn(dest + left - part, buffer, 0, part);
+            }
+        }
+    }
+
+    /** Pages on the Java heap allocated as they're first written, the default; see PagedStorage */
+    static MemoryStorage paged(long size) {
+        return new PagedStorage(size);
+    }
+
+    /** One array on the Java heap, all allocated up front; up to 2 GB */
+    static MemoryStorage heap(long size) {
+        return new HeapStorage(size);
+    }
+
+    /** Outside the Java heap, so it isn't part of heap sizing or GC marking; any size */
+    static MemoryStorage offHeap(long size) {
+        return new OffHeapStorage(size);
+    }
+
+    /** Mapped from a host file, shared (READ_WRITE) or copy-on-write (PRIVATE); see MappedFileStorage */
+    static MappedFileStorage mapped(Path file, long size, FileChannel.MapMode mode) throws IOException {
+        return MappedFileStorage.map(file, size, mode);
+    }
+}
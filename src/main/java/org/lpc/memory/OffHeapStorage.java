@@ -0,0 +1,174 @@
+package org.lpc.memory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Direct buffers of up to CHUNK_SIZE bytes each, so memory can outgrow the
+ * 2 GB a single buffer indexes. Direct buffers rather than MemorySegment,
+ * which is still a preview API on JDK 21. They count against
+ * -XX:MaxDirectMemorySize and are freed when the storage is collected.
+ * .
+ * Only a scalar access that straddles two chunks takes the slow path, one
+ * byte at a time; with the default memory map everything fits in one chunk.
+ * MappedFileStorage reuses all of it over chunks mapped from a file.
+ */
+class OffHeapStorage implements MemoryStorage {
+    static final int CHUNK_SHIFT = 30;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final long size;
+    private final ByteBuffer[] chunks;
+
+    OffHeapStorage(long size) {
+        this(size, new ByteBuffer[chunkCount(size)]);
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = ByteBuffer.allocateDirect(chunkSize(size, i)).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /** Over chunks the caller fills in, each chunkSize(size, i) bytes and little-endian */
+    OffHeapStorage(long size, ByteBuffer[] chunks) {
+        if (chunks.length != chunkCount(size)) throw new IllegalArgumentException("Wrong chunk count: " + chunks.length);
+        this.size = size;
+        this.chunks = chunks;
+    }
+
+    static int chunkCount(long size) {
+        if (size <= 0) throw new IllegalArgumentException("Memory size must be positive: " + size);
+        return (int) ((size + CHUNK_SIZE - 1) >>> CHUNK_SHIFT);
+    }
+
+    static int chunkSize(long size, int index) {
+        return (int) Math.min(CHUNK_SIZE, size - ((long) index << CHUNK_SHIFT));
+    }
+
+    ByteBuffer[] chunks() {
+        return chunks;
+    }
+
+    private ByteBuffer chunk(long address) {
+        return chunks[(int) (address >>> CHUNK_SHIFT)];
+    }
+
+    private static int offset(long address) {
+        return (int) address & CHUNK_MASK;
+    }
+
+    private static boolean straddles(long address, int size) {
+        return offset(address) > CHUNK_SIZE - size;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public byte getByte(long address) {
+        return chunk(address).get(offset(address));
+    }
+
+    @Override
+    public short getShort(long address) {
+        if (straddles(address, Short.BYTES)) return (short) getSlow(address, Short.BYTES);
+        return chunk(address).getShort(offset(address));
+    }
+
+    @Override
+    public int getInt(long address) {
+        if (straddles(address, Integer.BYTES)) return (int) getSlow(address, Integer.BYTES);
+        return chunk(address).getInt(offset(address));
+    }
+
+    @Override
+    public long getLong(long address) {
+        if (straddles(address, Long.BYTES)) return getSlow(address, Long.BYTES);
+        return chunk(address).getLong(offset(address));
+    }
+
+    @Override
+    public void putByte(long address, byte value) {
+        chunk(address).put(offset(address), value);
+    }
+
+    @Override
+    public void putShort(long address, short value) {
+        if (straddles(address, Short.BYTES)) {
+            putSlow(address, Short.BYTES, value);
+        } else {
+            chunk(address).putShort(offset(address), value);
+        }
+    }
+
+    @Override
+    public void putInt(long address, int value) {
+        if (straddles(address, Integer.BYTES)) {
+            putSlow(address, Integer.BYTES, value);
+        } else {
+            chunk(address).putInt(offset(address), value);
+        }
+    }
+
+    @Override
+    public void putLong(long address, long value) {
+        if (straddles(address, Long.BYTES)) {
+            putSlow(address, Long.BYTES, value);
+        } else {
+            chunk(address).putLong(offset(address), value);
+        }
+    }
+
+    private long getSlow(long address, int size) {
+        long value = 0;
+        for (int i = size - 1; i >= 0; i--) {
+            value = value << 8 | (getByte(address + i) & 0xFF);
+        }
+        return value;
+    }
+
+    private void putSlow(long address, int size, long value) {
+        for (int i = 0; i < size; i++) {
+            putByte(address + i, (byte) (value >>> 8 * i));
+        }
+    }
+
+    /*—— Bulk —————————*/
+    // Split at chunk boundaries
+
+    @Override
+    public void copyOut(long address, byte[] dest, int offset, int length) {
+        while (length > 0) {
+            int part = Math.min(length, CHUNK_SIZE - offset(address));
+            chunk(address).get(offset(address), dest, offset, part);
+            address += part;
+            offset += part;
+            length -= part;
+        }
+    }
+
+    @Override
+    public void copyIn(long address, byte[] src, int offset, int length) {
+        while (length > 0) {
+            int part = Math.min(length, CHUNK_SIZE - offset(address));
+            chunk(address).put(offset(address), src, offset, part);
+            address += part;
+            offset += part;
+            length -= part;
+        }
+    }
+
+    @Override
+    public void fill(long address, int length, byte value) {
+        byte[] block = new byte[Math.min(length, 1 << 16)];
+        if (value != 0) Arrays.fill(block, value);
+        while (length > 0) {
+            int part = Math.min(length, block.length);
+            copyIn(address, block, 0, part);
+            address += part;
+            length -= part;
+        }
+    }
+}
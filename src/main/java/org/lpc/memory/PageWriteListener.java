@@ -0,0 +1,12 @@
+package org.lpc.memory;
+
+/**
+ * Notified when a tracked page is written to.
+ * Tracking is one-shot: the page is untracked before the listener runs,
+ * so a listener that wants further notifications must call
+ * {@link Memory#trackPage(int)} again.
+ */
+@FunctionalInterface
+public interface PageWriteListener {
+    void onPageWrite(int page);
+}
@@ -0,0 +1,256 @@
+package org.lpc.memory;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Memory split into MemoryMap.PAGE_SIZE pages that are allocated on first
+ * write. Every untouched page is the one shared zero page, so reads never
+ * check for a missing page and a fresh VM costs just the page table. A
+ * scalar access within a page is a single array view access; one that
+ * crosses into the next page goes a byte at a time.
+ * .
+ * Filling whole pages with zero, as snapshot restores do, hands them back
+ * to the zero page.
+ * .
+ * The pages of a SharedImage are mapped in the same way: shared by every
+ * storage holding the image and copied on the first write. Shared pages,
+ * the zero page among them, are one byte longer than PAGE_SIZE, so a store
+ * tells them apart by the array length its bounds check loads anyway.
+ */
+final class PagedStorage implements MemoryStorage {
+    private static final int PAGE_SHIFT = MemoryMap.PAGE_SHIFT;
+    private static final int PAGE_SIZE = (int) MemoryMap.PAGE_SIZE;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final byte[] ZERO_PAGE = new byte[PAGE_SIZE + 1]; // never written
+
+    private static final VarHandle SHORTS = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INTS = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final long size;
+    private final byte[][] pages;
+
+    PagedStorage(long size) {
+        if (size <= 0 || size > (long) Integer.MAX_VALUE << PAGE_SHIFT) {
+            throw new IllegalArgumentException("Paged memory size out of range: " + size);
+        }
+        this.size = size;
+        pages = new byte[(int) ((size + PAGE_SIZE - 1) >>> PAGE_SHIFT)][];
+        Arrays.fill(pages, ZERO_PAGE);
+    }
+
+    private byte[] page(long address) {
+        return pages[(int) (address >>> PAGE_SHIFT)];
+    }
+
+    private byte[] writablePage(long address) {
+        int index = (int) (address >>> PAGE_SHIFT);
+        byte[] page = pages[index];
+        if (isShared(page)) {
+            page = page == ZERO_PAGE ? new byte[PAGE_SIZE] : Arrays.copyOf(page, PAGE_SIZE);
+            pages[index] = page;
+        }
+        return page;
+    }
+
+    private static boolean isShared(byte[] page) {
+        return page.length != PAGE_SIZE;
+    }
+
+    /** Splits bytes into shared pages, the last one padded with zeros */
+    static byte[][] sharedPages(byte[] bytes) {
+        byte[][] shared = new byte[(bytes.length + PAGE_SIZE - 1) >>> PAGE_SHIFT][];
+        for (int i = 0; i < shared.length; i++) {
+            shared[i] = new byte[PAGE_SIZE + 1];
+            int from = i << PAGE_SHIFT;
+            System.arraycopy(bytes, from, shared[i], 0, Math.min(PAGE_SIZE, bytes.length - from));
+        }
+        return shared;
+    }
+
+    private static int offset(long address) {
+        return (int) address & PAGE_MASK;
+    }
+
+    private static boolean crosses(long address, int size) {
+        return offset(address) > PAGE_SIZE - size;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public byte getByte(long address) {
+        return page(address)[offset(address)];
+    }
+
+    @Override
+    public short getShort(long address) {
+        if (crosses(address, Short.BYTES)) return (short) getSlow(address, Short.BYTES);
+        return (short) SHORTS.get(page(address), offset(address));
+    }
+
+    @Override
+    public int getInt(long address) {
+        if (crosses(address, Integer.BYTES)) return (int) getSlow(address, Integer.BYTES);
+        return (int) INTS.get(page(address), offset(address));
+    }
+
+    @Override
+    public long getLong(long address) {
+        if (crosses(address, Long.BYTES)) return getSlow(address, Long.BYTES);
+        return (long) LONGS.get(page(address), offset(address));
+    }
+
+    @Override
+    public void putByte(long address, byte value) {
+        writablePage(address)[offset(address)] = value;
+    }
+
+    @Override
+    public void putShort(long address, short value) {
+        if (crosses(address, Short.BYTES)) {
+            putSlow(address, Short.BYTES, value);
+        } else {
+            SHORTS.set(writablePage(address), offset(address), value);
+        }
+    }
+
+    @Override
+    public void putInt(long address, int value) {
+        if (crosses(address, Integer.BYTES)) {
+            putSlow(address, Integer.BYTES, value);
+        } else {
+            INTS.set(writablePage(address), offset(address), value);
+        }
+    }
+
+    @Override
+    public void putLong(long address, long value) {
+        if (crosses(address, Long.BYTES)) {
+            putSlow(address, Long.BYTES, value);
+        } else {
+            LONGS.set(writablePage(address), offset(address), value);
+        }
+    }
+
+    private long getSlow(long address, int size) {
+        long value = 0;
+        for (int i = size - 1; i >= 0; i--) {
+            value = value << 8 | (getByte(address + i) & 0xFF);
+        }
+        return value;
+    }
+
+    private void putSlow(long address, int size, long value) {
+        for (int i = 0; i < size; i++) {
+            putByte(address + i, (byte) (value >>> 8 * i));
+        }
+    }
+
+    /*—— Bulk —————————*/
+    // Split at page boundaries
+
+    @Override
+    public void copyOut(long address, byte[] dest, int offset, int length) {
+        while (length > 0) {
+            int part = Math.min(length, PAGE_SIZE - offset(address));
+            System.arraycopy(page(address), offset(address), dest, offset, part);
+            address += part;
+            offset += part;
+            length -= part;
+        }
+    }
+
+    @Override
+    public void copyIn(long address, byte[] src, int offset, int length) {
+        while (length > 0) {
+            int part = Math.min(length, PAGE_SIZE - offset(address));
+            System.arraycopy(src, offset, writablePage(address), offset(address), part);
+            address += part;
+            offset += part;
+            length -= part;
+        }
+    }
+
+    @Override
+    public void copyInShared(long address, SharedImage image) {
+        int length = image.length();
+        for (int done = 0; done < length; done += PAGE_SIZE) {
+            int part = Math.min(length - done, PAGE_SIZE);
+            int index = (int) ((address + done) >>> PAGE_SHIFT);
+            // A partly covered page is only mapped over the zero page, where the rest reads as zero anyway
+            if (part == PAGE_SIZE || pages[index] == ZERO_PAGE) {
+                pages[index] = image.page(done >>> PAGE_SHIFT);
+            } else {
+                copyIn(address + done, image.bytes(), done, part);
+            }
+        }
+    }
+
+    @Override
+    public long sharedBytes(long address, long length) {
+        long shared = 0;
+        for (long page = address >>> PAGE_SHIFT; page < (address + length + PAGE_SIZE - 1) >>> PAGE_SHIFT; page++) {
+            byte[] held = pages[(int) page];
+            if (isShared(held) && held != ZERO_PAGE) shared += PAGE_SIZE;
+        }
+        return shared;
+    }
+
+    @Override
+    public int mismatch(long first, long second, int length) {
+        for (int done = 0; done < length; ) {
+            int from = offset(first + done);
+            int to = offset(second + done);
+            int part = Math.min(length - done, PAGE_SIZE - Math.max(from, to));
+            int i = Arrays.mismatch(page(first + done), from, from + part, page(second + done), to, to + part);
+            if (i >= 0) return done + i;
+            done += part;
+        }
+        return -1;
+    }
+
+    @Override
+    public void move(long src, long dest, int length) {
+        if (dest <= src || dest >= src + length) {
+            for (int done = 0; done < length; ) {
+                int part = Math.min(length - done, Math.min(PAGE_SIZE - offset(src + done), PAGE_SIZE - offset(dest + done)));
+                movePart(src + done, dest + done, part);
+                done += part;
+            }
+        } else {
+            // dest lies inside the source, so copy from the end down
+            for (int left = length; left > 0; ) {
+                int part = Math.min(left, Math.min(offset(src + left - 1), offset(dest + left - 1)) + 1);
+                left -= part;
+                movePart(src + left, dest + left, part);
+            }
+        }
+    }
+
+    // Both sides within one page; the destination is made writable first, as it may be the source's page
+    private void movePart(long src, long dest, int length) {
+        byte[] to = writablePage(dest);
+        System.arraycopy(page(src), offset(src), to, offset(dest), length);
+    }
+
+    @Override
+    public void fill(long address, int length, byte value) {
+        while (length > 0) {
+            int part = Math.min(length, PAGE_SIZE - offset(address));
+            if (value == 0 && part == PAGE_SIZE) {
+                pages[(int) (address >>> PAGE_SHIFT)] = ZERO_PAGE;
+            } else if (value != 0 || page(address) != ZERO_PAGE) {
+                Arrays.fill(writablePage(address), offset(address), offset(address) + part, value);
+            }
+            address += part;
+            length -= part;
+        }
+    }
+}
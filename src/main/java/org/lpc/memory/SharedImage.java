@@ -0,0 +1,35 @@
+package org.lpc.memory;
+
+/**
+ * Bytes that never change once built, such as the ROM or a program, placed
+ * in any number of VMs' memory with Memory.writeShared. PagedStorage maps
+ * the image's pages into place copy-on-write instead of copying them, so
+ * the VMs hold one copy between them until each writes a page of it.
+ */
+public final class SharedImage {
+    private final byte[] bytes;
+    private final byte[][] pages; // in PagedStorage's shared page format
+
+    private SharedImage(byte[] bytes) {
+        this.bytes = bytes;
+        this.pages = PagedStorage.sharedPages(bytes);
+    }
+
+    /** An image of a copy of bytes */
+    public static SharedImage of(byte[] bytes) {
+        return new SharedImage(bytes.clone());
+    }
+
+    public int length() {
+        return bytes.length;
+    }
+
+    // Never to be written, like the pages
+    byte[] bytes() {
+        return bytes;
+    }
+
+    byte[] page(int index) {
+        return pages[index];
+    }
+}
@@ -0,0 +1,41 @@
+package org.lpc.memory;
+
+/**
+ * Watched address range. A core that reads or writes any byte of it stops
+ * before the access, see {@link Memory#addWatchpoint}. Ranges may cover MMIO,
+ * then device register accesses are watched.
+ */
+public record Watchpoint(long start, long length, boolean onRead, boolean onWrite) {
+    public Watchpoint {
+        if (length <= 0) throw new IllegalArgumentException("Watchpoint length must be positive: " + length);
+        if (start < 0 || start > MemoryMap.TOTAL_SIZE - length) {
+            throw new IllegalArgumentException(String.format("Watchpoint outside memory: 0x%X+%d", start, length));
+        }
+        if (!onRead && !onWrite) throw new IllegalArgumentException("Watchpoint must watch reads or writes");
+    }
+
+    public static Watchpoint reads(long start, long length) {
+        return new Watchpoint(start, length, true, false);
+    }
+
+    public static Watchpoint writes(long start, long length) {
+        return new Watchpoint(start, length, false, true);
+    }
+
+    public static Watchpoint accesses(long start, long length) {
+        return new Watchpoint(start, length, true, true);
+    }
+
+    public long end() {
+        return start + length;
+    }
+
+    boolean matches(long address, int size, boolean write) {
+        return (write ? onWrite : onRead) && address < end() && address + size > start;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s 0x%X-0x%X", onRead ? (onWrite ? "access" : "read") : "write", start, end() - 1);
+    }
+}
@@ -0,0 +1,24 @@
+package org.lpc.memory;
+
+import lombok.Getter;
+
+/**
+ * Thrown by Memory before a core's access to a watched range takes place;
+ * the CPU turns it into a stop at the accessing instruction.
+ */
+@Getter
+public class WatchpointHit extends RuntimeException {
+    private final Watchpoint watchpoint;
+    private final long address;
+    private final int size;
+    private final boolean write;
+
+    public WatchpointHit(Watchpoint watchpoint, long address, int size, boolean write) {
+        super(String.format("Watchpoint %s: %s of %d bytes at 0x%X",
+                watchpoint, write ? "write" : "read", size, address), null, false, false);
+        this.watchpoint = watchpoint;
+        this.address = address;
+        this.size = size;
+        this.write = write;
+    }
+}
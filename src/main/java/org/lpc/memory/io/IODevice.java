@@ -1,5 +1,9 @@
 package org.lpc.memory.io;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 public interface IODevice {
     long getBaseAdress();
     long getSize();
@@ -7,4 +11,10 @@ public interface IODevice {
 
     boolean handleWrite(long relativeAddress, long value);
     long handleRead(long relativeAddress, int size);
+
+    /** Writes the guest-visible state for a VM snapshot; stateless devices write nothing */
+    default void saveState(DataOutput out) throws IOException {}
+
+    /** Reads back what saveState wrote */
+    default void restoreState(DataInput in) throws IOException {}
 }
\ No newline at end of file
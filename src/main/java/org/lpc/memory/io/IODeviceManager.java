@@ -1,42 +1,62 @@
 package org.lpc.memory.io;
 
+import org.lpc.memory.MemoryMap;
+
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+/**
+ * Devices mapped into the MMIO window. Lookups index a table holding the
+ * device for every SLOT_SIZE bytes of the window, so they take no lock and
+ * don't scan. Adding a device builds a new table and publishes it, which is
+ * fine since devices are only added while the VM is wired up.
+ */
 public class IODeviceManager {
-    private final List<IODevice> devices;
-    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    /** Device granularity: bases and sizes are multiples of this, the width of a device register */
+    public static final int SLOT_SIZE = Long.BYTES;
+    private static final int SLOT_SHIFT = 3;
 
-    public IODeviceManager() {
-        this.devices = new ArrayList<>();
-    }
+    // Replaced whole by addDevice, never changed in place
+    private volatile List<IODevice> devices = List.of();
+    private volatile IODevice[] slots = new IODevice[(int) (MemoryMap.MMIO_SIZE >>> SLOT_SHIFT)];
 
-    public void addDevice(IODevice device) {
+    public synchronized void addDevice(IODevice device) {
         if (device == null) {
             throw new IllegalArgumentException("Device cannot be null");
         }
+        long start = device.getBaseAdress();
+        long end = start + device.getSize();
+        if (device.getSize() <= 0 || start < MemoryMap.MMIO_BASE || end > MemoryMap.MMIO_END) {
+            throw new IllegalArgumentException(String.format("Device '%s' [0x%X - 0x%X] is outside the MMIO window",
+                    device.getName(), start, end - 1));
+        }
+        if (start % SLOT_SIZE != 0 || end % SLOT_SIZE != 0) {
+            throw new IllegalArgumentException(String.format("Device '%s' [0x%X - 0x%X] is not %d-byte aligned",
+                    device.getName(), start, end - 1, SLOT_SIZE));
+        }
 
-        lock.writeLock().lock();
-        try {
-            // Check for overlapping address ranges
-            for (IODevice existingDevice : devices) {
-                if (addressRangesOverlap(existingDevice, device)) {
-                    throw new IllegalArgumentException(
-                        String.format("Device address range [0x%X - 0x%X] overlaps with existing device '%s' [0x%X - 0x%X]",
-                                device.getBaseAdress(),
-                                device.getBaseAdress() + device.getSize() - 1,
-                                existingDevice.getName(),
-                                existingDevice.getBaseAdress(),
-                                existingDevice.getBaseAdress() + existingDevice.getSize() - 1)
-                    );
-                }
+        // Check for overlapping address ranges
+        for (IODevice existingDevice : devices) {
+            if (addressRangesOverlap(existingDevice, device)) {
+                throw new IllegalArgumentException(
+                    String.format("Device address range [0x%X - 0x%X] overlaps with existing device '%s' [0x%X - 0x%X]",
+                            start,
+                            end - 1,
+                            existingDevice.getName(),
+                            existingDevice.getBaseAdress(),
+                            existingDevice.getBaseAdress() + existingDevice.getSize() - 1)
+                );
             }
-            devices.add(device);
-        } finally {
-            lock.writeLock().unlock();
         }
+
+        IODevice[] newSlots = slots.clone();
+        for (long address = start; address < end; address += SLOT_SIZE) {
+            newSlots[slot(address)] = device;
+        }
+        List<IODevice> newDevices = new ArrayList<>(devices);
+        newDevices.add(device);
+        slots = newSlots;
+        devices = List.copyOf(newDevices);
     }
 
     public void addDevices(IODevice... newDevices) {
@@ -45,25 +65,22 @@ public class IODeviceManager {
         }
     }
 
+    /** Devices in the order they were added */
+    public List<IODevice> getDevices() {
+        return devices;
+    }
+
     /**
      * Get the device that contains the specified address within its address range.
      * This is the correct method for MMIO lookups.
      */
     public IODevice getDeviceByAddress(long address) {
-        lock.readLock().lock();
-        try {
-            for (IODevice device : devices) {
-                long deviceStart = device.getBaseAdress();
-                long deviceEnd = deviceStart + device.getSize() - 1;
+        if (!MemoryMap.isMmioAddress(address)) return null;
+        return slots[slot(address)]; // null for unmapped addresses, which is normal
+    }
 
-                if (address >= deviceStart && address <= deviceEnd) {
-                    return device;
-                }
-            }
-            return null; // No device found - this is normal for unmapped addresses
-        } finally {
-            lock.readLock().unlock();
-        }
+    private static int slot(long address) {
+        return (int) ((address - MemoryMap.MMIO_BASE) >>> SLOT_SHIFT);
     }
 
     private boolean addressRangesOverlap(IODevice device1, IODevice device2) {
@@ -75,4 +92,4 @@ public class IODeviceManager {
         // Two ranges overlap if: start1 <= end2 && start2 <= end1
         return start1 <= end2 && start2 <= end1;
     }
-}
\ No newline at end of file
+}
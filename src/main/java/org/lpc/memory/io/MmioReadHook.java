@@ -0,0 +1,14 @@
+package org.lpc.memory.io;
+
+import java.util.function.LongSupplier;
+
+/** Intercepts reads from MMIO devices, see Memory.setMmioReadHook */
+@FunctionalInterface
+public interface MmioReadHook {
+    /**
+     * @param address absolute address of the read
+     * @param device performs the real device read; not calling it skips the device
+     * @return the value the guest sees
+     */
+    long onRead(long address, int size, LongSupplier device);
+}
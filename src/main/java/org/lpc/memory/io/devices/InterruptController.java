@@ -0,0 +1,137 @@
+package org.lpc.memory.io.devices;
+
+import org.lpc.memory.io.IODevice;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Programmable interrupt controller. Devices raise numbered lines; a raised
+ * line that is enabled latches as pending, and interrupts the boot core while
+ * it stays pending and unmasked. The core takes it at its next basic-block
+ * boundary if STATUS.IE is set, see the interrupt model in InstructionSet.
+ * Every raise also wakes cores idle in WFI, whatever the line's configuration.
+ *
+ * Lines:
+ * 0 TIMER     - timer alarm (COMPARE reached), see TimerDevice
+ * 1 KEYBOARD  - key pressed or released
+ *
+ * Memory Map:
+ * +0x00 PENDING  [RO] - Bit n set while line n is pending
+ * +0x08 ENABLE   [RW] - Lines that latch when raised; raising any other line only wakes WFI
+ * +0x10 MASK     [RW] - Pending lines that don't interrupt the core, they stay visible in PENDING
+ * +0x18 ACK      [WO] - Clears the pending bits written
+ * +0x20 CLAIM    [RO] - Lowest pending unmasked line, -1 if none
+ * +0x28 RAISE    [WO] - Raises the lines written, e.g. as software interrupts
+ */
+public class InterruptController implements IODevice {
+    public static final int SIZE = 0x30;
+    public static final int OFFSET_PENDING = 0x00;
+    public static final int OFFSET_ENABLE = 0x08;
+    public static final int OFFSET_MASK = 0x10;
+    public static final int OFFSET_ACK = 0x18;
+    public static final int OFFSET_CLAIM = 0x20;
+    public static final int OFFSET_RAISE = 0x28;
+
+    public static final int LINE_TIMER = 0;
+    public static final int LINE_KEYBOARD = 1;
+
+    private final long baseAddress;
+    private final Runnable onEvent;
+
+    // Guarded by this
+    private long pending;
+    private long enabled;
+    private long masked;
+    // pending & ~masked, read by the CPU at every block boundary without locking
+    private volatile long active;
+
+    public InterruptController(long baseAddress, Runnable onEvent) {
+        this.baseAddress = baseAddress;
+        this.onEvent = onEvent;
+    }
+
+    /** Raises a line; callable from any thread */
+    public void raise(int line) {
+        if (line < 0 || line >= Long.SIZE) throw new IllegalArgumentException("Invalid interrupt line: " + line);
+        raiseLines(1L << line);
+    }
+
+    private void raiseLines(long lines) {
+        synchronized (this) {
+            pending |= lines & enabled;
+            update();
+        }
+        onEvent.run();
+    }
+
+    /** Lowest pending unmasked line, -1 if none */
+    public int activeLine() {
+        long lines = active;
+        return lines == 0 ? -1 : Long.numberOfTrailingZeros(lines);
+    }
+
+    private void update() {
+        active = pending & ~masked;
+    }
+
+    @Override
+    public synchronized void saveState(DataOutput out) throws IOException {
+        out.writeLong(pending);
+        out.writeLong(enabled);
+        out.writeLong(masked);
+    }
+
+    @Override
+    public synchronized void restoreState(DataInput in) throws IOException {
+        pending = in.readLong();
+        enabled = in.readLong();
+        masked = in.readLong();
+        update();
+    }
+
+    @Override
+    public long getBaseAdress() {
+        return baseAddress;
+    }
+
+    @Override
+    public long getSize() {
+        return SIZE;
+    }
+
+    @Override
+    public String getName() {
+        return "InterruptController";
+    }
+
+    @Override
+    public boolean handleWrite(long relativeAddress, long value) {
+        if (relativeAddress == OFFSET_RAISE) {
+            raiseLines(value);
+            return true;
+        }
+        synchronized (this) {
+            switch ((int) relativeAddress) {
+                case OFFSET_ENABLE -> enabled = value;
+                case OFFSET_MASK -> masked = value;
+                case OFFSET_ACK -> pending &= ~value;
+                default -> { return false; }
+            }
+            update();
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized long handleRead(long relativeAddress, int size) {
+        return switch ((int) relativeAddress) {
+            case OFFSET_PENDING -> pending;
+            case OFFSET_ENABLE -> enabled;
+            case OFFSET_MASK -> masked;
+            case OFFSET_CLAIM -> activeLine();
+            default -> 0;
+        };
+    }
+}
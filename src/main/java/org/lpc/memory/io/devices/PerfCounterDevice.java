@@ -0,0 +1,115 @@
+package org.lpc.memory.io.devices;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.lpc.cpu.Cpu;
+import org.lpc.memory.Memory;
+import org.lpc.memory.io.IODevice;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Read-only performance counters, one bank per core, so guests can measure
+ * their own code without host tools. Counts are since boot and only ever
+ * grow; a section is timed by reading a counter before and after it.
+ * .
+ * Compiled blocks update their core's counters once per block, so in the JIT
+ * modes a read sees the counts as of the start of the block it's in. Counters
+ * of another core are only approximate while it runs.
+ * .
+ * CYCLES isn't measured, it's derived from the other counters through the
+ * {@link CostModel}, which the host may change at any time.
+ *
+ * Memory Map (bank of core n at +0x40 * n):
+ * +0x00 INSTRUCTIONS [RO] - Instructions retired
+ * +0x08 CYCLES       [RO] - Estimated cycles, see CostModel
+ * +0x10 LOADS        [RO] - Loads retired, POP and atomics included
+ * +0x18 STORES       [RO] - Stores retired, PUSH and atomics included
+ * +0x20 BRANCHES     [RO] - Jumps taken, i.e. that didn't continue with the next instruction
+ * +0x28 MMIO         [RO] - Device reads and writes of all cores, reading these counters included
+ */
+public class PerfCounterDevice implements IODevice {
+    public static final int BANK_SIZE = 0x40;
+    public static final int OFFSET_INSTRUCTIONS = 0x00;
+    public static final int OFFSET_CYCLES = 0x08;
+    public static final int OFFSET_LOADS = 0x10;
+    public static final int OFFSET_STORES = 0x18;
+    public static final int OFFSET_BRANCHES = 0x20;
+    public static final int OFFSET_MMIO = 0x28;
+
+    /**
+     * Cycles per instruction, plus the extra cycles of each load, store, taken
+     * jump and device access. MMIO accesses are counted for the whole VM, so
+     * on multi-core guests their cost lands on every core's estimate.
+     */
+    public record CostModel(long instruction, long load, long store, long takenBranch, long mmioAccess) {
+        public static final CostModel DEFAULT = new CostModel(1, 2, 2, 2, 50);
+
+        public long cycles(long instructions, long loads, long stores, long takenBranches, long mmioAccesses) {
+            return instructions * instruction + loads * load + stores * store
+                    + takenBranches * takenBranch + mmioAccesses * mmioAccess;
+        }
+    }
+
+    private final long baseAddress;
+    private final List<Cpu> cores;
+    private final Memory memory;
+    @Getter
+    @Setter
+    private volatile CostModel costModel = CostModel.DEFAULT;
+
+    public PerfCounterDevice(long baseAddress, List<Cpu> cores, Memory memory) {
+        this.baseAddress = baseAddress;
+        this.cores = cores;
+        this.memory = memory;
+    }
+
+    /** The CPU keeps its own counters in its state, only the VM-wide MMIO count lives here */
+    @Override
+    public void saveState(DataOutput out) throws IOException {
+        out.writeLong(memory.getMmioAccesses());
+    }
+
+    @Override
+    public void restoreState(DataInput in) throws IOException {
+        memory.setMmioAccesses(in.readLong());
+    }
+
+    @Override
+    public long getBaseAdress() {
+        return baseAddress;
+    }
+
+    @Override
+    public long getSize() {
+        return (long) BANK_SIZE * cores.size();
+    }
+
+    @Override
+    public String getName() {
+        return "PerfCounters";
+    }
+
+    @Override
+    public boolean handleWrite(long relativeAddress, long value) {
+        return false;
+    }
+
+    @Override
+    public long handleRead(long relativeAddress, int size) {
+        Cpu core = cores.get((int) (relativeAddress / BANK_SIZE));
+        return switch ((int) (relativeAddress % BANK_SIZE)) {
+            case OFFSET_INSTRUCTIONS -> core.getInstructionsRetired();
+            case OFFSET_CYCLES -> costModel.cycles(core.getInstructionsRetired(),
+                    core.getLoads(), core.getStores(), core.getTakenBranches(), memory.getMmioAccesses());
+            case OFFSET_LOADS -> core.getLoads();
+            case OFFSET_STORES -> core.getStores();
+            case OFFSET_BRANCHES -> core.getTakenBranches();
+            case OFFSET_MMIO -> memory.getMmioAccesses();
+            default -> 0;
+        };
+    }
+}
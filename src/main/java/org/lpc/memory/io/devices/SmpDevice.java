@@ -0,0 +1,142 @@
+package org.lpc.memory.io.devices;
+
+import org.lpc.cpu.Cpu;
+import org.lpc.cpu.ExecutionControl;
+import org.lpc.cpu.RunState;
+import org.lpc.memory.io.IODevice;
+import org.lpc.utils.Logger;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Multi-core control block. Core 0 boots from ROM; every other core stays
+ * halted until a running core starts it here, which launches it on its own
+ * host thread. A started core has zeroed registers except sp, plus gp and hp
+ * copied from core 0 so it shares the program's globals. A core that halts
+ * can be started again, and raises an event so cores waiting on it wake up.
+ *
+ * Memory Map:
+ * +0x00 CORE_COUNT  [RO] - Number of cores
+ * +0x08 START_PC    [RW] - Entry point for the next START
+ * +0x10 START_SP    [RW] - Initial stack pointer for the next START
+ * +0x18 START       [WO] - Write a core ID to start that core (ignored if it is running)
+ * +0x20 RUNNING     [RO] - Bit i set while core i is running (core 0 always set)
+ */
+public class SmpDevice implements IODevice {
+    public static final int SIZE = 0x28;
+    public static final int OFFSET_CORE_COUNT = 0x00;
+    public static final int OFFSET_START_PC = 0x08;
+    public static final int OFFSET_START_SP = 0x10;
+    public static final int OFFSET_START = 0x18;
+    public static final int OFFSET_RUNNING = 0x20;
+
+    private final long baseAddress;
+    private final List<Cpu> cores;
+    private final ExecutionControl executionControl;
+    private final Runnable onEvent;
+
+    // Guarded by this
+    private long startPc;
+    private long startSp;
+    private long runningMask = 1;
+
+    public SmpDevice(long baseAddress, List<Cpu> cores, ExecutionControl executionControl, Runnable onEvent) {
+        if (cores.size() > Long.SIZE) throw new IllegalArgumentException("At most 64 cores supported");
+        this.baseAddress = baseAddress;
+        this.cores = cores;
+        this.executionControl = executionControl;
+        this.onEvent = onEvent;
+    }
+
+    /** Starts a secondary core, returns false if it is already running */
+    public synchronized boolean startCore(int coreId, long pc, long stackPointer) {
+        if (coreId <= 0 || coreId >= cores.size()) {
+            throw new IllegalArgumentException("Invalid core ID: " + coreId);
+        }
+        long bit = 1L << coreId;
+        if ((runningMask & bit) != 0) return false;
+
+        runningMask |= bit;
+        cores.getFirst().getMemory().setSingleWriter(false); // more than one core writes from here on
+        Cpu core = cores.get(coreId);
+        core.start(pc, stackPointer, cores.getFirst());
+        Thread.ofPlatform()
+                .name("Core-" + coreId)
+                .daemon()
+                .start(() -> runCore(core, bit));
+        return true;
+    }
+
+    private void runCore(Cpu core, long bit) {
+        try {
+            RunState state = executionControl.run(core);
+            if (state == RunState.FAULT) {
+                Logger.log("Core %d stopped on fault: %s", core.getCoreId(), core.getLastFault());
+            }
+        } finally {
+            synchronized (this) {
+                runningMask &= ~bit;
+            }
+            onEvent.run();
+        }
+    }
+
+    public synchronized long getRunningMask() {
+        return runningMask;
+    }
+
+    // Running cores aren't part of the state: snapshots are only taken with core 0 alone running
+    @Override
+    public synchronized void saveState(DataOutput out) throws IOException {
+        out.writeLong(startPc);
+        out.writeLong(startSp);
+    }
+
+    @Override
+    public synchronized void restoreState(DataInput in) throws IOException {
+        startPc = in.readLong();
+        startSp = in.readLong();
+    }
+
+    @Override
+    public long getBaseAdress() {
+        return baseAddress;
+    }
+
+    @Override
+    public long getSize() {
+        return SIZE;
+    }
+
+    @Override
+    public String getName() {
+        return "SMP";
+    }
+
+    @Override
+    public synchronized boolean handleWrite(long relativeAddress, long value) {
+        switch ((int) relativeAddress) {
+            case OFFSET_START_PC -> startPc = value;
+            case OFFSET_START_SP -> startSp = value;
+            case OFFSET_START -> {
+                if (value > 0 && value < cores.size()) startCore((int) value, startPc, startSp);
+            }
+            default -> { return false; }
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized long handleRead(long relativeAddress, int size) {
+        return switch ((int) relativeAddress) {
+            case OFFSET_CORE_COUNT -> cores.size();
+            case OFFSET_START_PC -> startPc;
+            case OFFSET_START_SP -> startSp;
+            case OFFSET_RUNNING -> runningMask;
+            default -> 0;
+        };
+    }
+}
@@ -1,36 +1,183 @@
 package org.lpc.memory.io.devices;
 
+import org.lpc.cpu.Cpu;
 import org.lpc.memory.io.IODevice;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Clocks and a programmable alarm. Every register is computed when read,
+ * nothing runs in the background except a pending alarm.
+ * .
+ * In deterministic mode time is virtual: NANOS counts one nanosecond per
+ * instruction the boot core retires, plus the time it spends idle in WFI,
+ * which passes at once up to the next alarm. MILLIS then starts at
+ * DETERMINISTIC_EPOCH_MS. A run of the same program sees the same times and
+ * gets its alarms after the same instructions, in the same execution mode
+ * (compiled blocks update the instruction count once per block).
+ * .
+ * When NANOS reaches COMPARE the timer interrupt line is raised; with a
+ * PERIOD COMPARE then moves on by it, skipping ticks that were missed,
+ * otherwise it is cleared.
+ *
+ * Memory Map:
+ * +0x00 MILLIS        [RO] - Wall-clock ms since the epoch
+ * +0x08 NANOS         [RO] - Monotonic ns since boot
+ * +0x10 INSTRUCTIONS  [RO] - Instructions retired by the boot core
+ * +0x18 COMPARE       [RW] - NANOS value that raises the timer line, 0 = no alarm
+ * +0x20 PERIOD        [RW] - Re-arms COMPARE this many ns after it fires, 0 = one-shot
+ * +0x28 DETERMINISTIC [RO] - 1 while time is derived from instructions
+ */
 public class TimerDevice implements IODevice {
-    private static final int SIZE = 8;
+    public static final int SIZE = 0x30;
+    public static final int OFFSET_MILLIS = 0x00;
+    public static final int OFFSET_NANOS = 0x08;
+    public static final int OFFSET_INSTRUCTIONS = 0x10;
+    public static final int OFFSET_COMPARE = 0x18;
+    public static final int OFFSET_PERIOD = 0x20;
+    public static final int OFFSET_DETERMINISTIC = 0x28;
+    public static final long DETERMINISTIC_EPOCH_MS = 1_735_689_600_000L; // 2025-01-01T00:00:00Z
+
+    // One thread fires the wall-clock alarms of every VM
+    private static final ScheduledExecutorService ALARMS = Executors.newSingleThreadScheduledExecutor(
+            task -> Thread.ofPlatform().name("TimerAlarms").daemon().unstarted(task));
+
     private final long baseAddress;
-    private final ByteBuffer buffer;
+    private final Cpu clock;
+    private final Runnable onAlarm;
+
+    // Guarded by this
+    private boolean deterministic;
+    private long bootNanos = System.nanoTime();
+    private long idleNanos; // deterministic mode: virtual time spent in WFI
+    private long compare;
+    private long period;
+    private ScheduledFuture<?> pendingAlarm;
 
-    public TimerDevice(long baseAddress) {
+    /**
+     * @param clock the boot core, whose retired instructions drive INSTRUCTIONS and deterministic time
+     * @param onAlarm raises the timer interrupt line
+     */
+    public TimerDevice(long baseAddress, Cpu clock, Runnable onAlarm) {
         this.baseAddress = baseAddress;
-        this.buffer = ByteBuffer.allocate(SIZE).order(ByteOrder.LITTLE_ENDIAN);
-        startTimerThread();
-    }
-
-    private void startTimerThread() {
-        Thread timerThread = new Thread(() -> {
-            while (true) {
-                long now = System.currentTimeMillis();
-                synchronized (buffer) {
-                    buffer.position(0);
-                    buffer.putLong(now);
-                }
-            }
-        }, "TimerDeviceThread");
+        this.clock = clock;
+        this.onAlarm = onAlarm;
+    }
+
+    /**
+     * Switches between wall-clock and virtual time, keeping NANOS where it is.
+     * Deterministic alarms are fired by the boot core, so only switch while it isn't running.
+     */
+    public synchronized void setDeterministic(boolean deterministic) {
+        long now = nanos();
+        clock.setAlarm(Long.MAX_VALUE, null);
+        this.deterministic = deterministic;
+        setNanos(now);
+        arm();
+    }
+
+    public synchronized boolean isDeterministic() {
+        return deterministic;
+    }
+
+    /** Whether COMPARE is set, i.e. the timer line will be raised */
+    public synchronized boolean isAlarmArmed() {
+        return compare != 0;
+    }
+
+    private long nanos() {
+        return deterministic ? clock.getInstructionsRetired() + idleNanos : System.nanoTime() - bootNanos;
+    }
+
+    private void setNanos(long nanos) {
+        if (deterministic) {
+            idleNanos = nanos - clock.getInstructionsRetired();
+        } else {
+            bootNanos = System.nanoTime() - nanos;
+        }
+    }
+
+    private long millis() {
+        return deterministic ? DETERMINISTIC_EPOCH_MS + nanos() / 1_000_000 : System.currentTimeMillis();
+    }
+
+    /*—— Alarm —————————*/
+
+    private void arm() {
+        if (pendingAlarm != null) pendingAlarm.cancel(false);
+        pendingAlarm = null;
+        long delay = Math.max(compare - nanos(), 0);
+        if (deterministic) {
+            clock.setAlarm(clock.getInstructionsRetired() + delay, compare == 0 ? null : this::fireDeterministic);
+        } else if (compare != 0) {
+            pendingAlarm = ALARMS.schedule(new WallAlarm(this), delay, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private synchronized void fireDeterministic(long idleInstructions) {
+        idleNanos += idleInstructions;
+        fire();
+    }
 
-        timerThread.setDaemon(true);
-        timerThread.start();
+    private synchronized void fire() {
+        long now = nanos();
+        if (compare == 0) return;
+        if (now < compare) { // COMPARE moved after this alarm was scheduled
+            arm();
+            return;
+        }
+        if (period > 0) {
+            compare += period;
+            if (compare <= now) compare = now + period;
+        } else {
+            compare = 0;
+        }
+        arm();
+        onAlarm.run();
+    }
+
+    // Holds the device weakly, so a dropped VM's alarm doesn't keep it alive
+    private static final class WallAlarm implements Runnable {
+        private final WeakReference<TimerDevice> device;
+
+        WallAlarm(TimerDevice device) {
+            this.device = new WeakReference<>(device);
+        }
+
+        @Override
+        public void run() {
+            TimerDevice timer = device.get();
+            if (timer != null) timer.fire();
+        }
+    }
+
+    /*—— Snapshot —————————*/
+
+    @Override
+    public synchronized void saveState(DataOutput out) throws IOException {
+        out.writeLong(nanos());
+        out.writeLong(compare);
+        out.writeLong(period);
     }
 
+    /** The clock resumes where the snapshot left it, in whichever mode this timer is */
+    @Override
+    public synchronized void restoreState(DataInput in) throws IOException {
+        setNanos(in.readLong());
+        compare = in.readLong();
+        period = in.readLong();
+        arm();
+    }
+
+    /*—— MMIO —————————*/
+
     @Override
     public long getBaseAdress() {
         return baseAddress;
@@ -47,27 +194,31 @@ public class TimerDevice implements IODevice {
     }
 
     @Override
-    public boolean handleWrite(long relativeAddress, long value) {
-        return false;
+    public synchronized boolean handleWrite(long relativeAddress, long value) {
+        switch ((int) relativeAddress) {
+            case OFFSET_COMPARE -> {
+                compare = value;
+                arm();
+            }
+            case OFFSET_PERIOD -> period = Math.max(value, 0);
+            default -> { return false; }
+        }
+        return true;
     }
 
+    /** Registers are little-endian longs; narrower or offset reads take the matching bytes */
     @Override
-    public long handleRead(long relativeAddress, int size) {
-        if (relativeAddress < 0 || relativeAddress + size > SIZE) {
-            throw new IllegalArgumentException("Invalid read address or size");
-        }
-
-        byte[] data = new byte[size];
-        synchronized (buffer) {
-            buffer.position((int) relativeAddress);
-            buffer.get(data);
-        }
-
-        long result = 0;
-        for (int i = 0; i < size; i++) {
-            result |= ((long) (data[i] & 0xFF)) << (i * 8);
-        }
-
-        return result;
+    public synchronized long handleRead(long relativeAddress, int size) {
+        long value = switch ((int) relativeAddress & ~7) {
+            case OFFSET_MILLIS -> millis();
+            case OFFSET_NANOS -> nanos();
+            case OFFSET_INSTRUCTIONS -> clock.getInstructionsRetired();
+            case OFFSET_COMPARE -> compare;
+            case OFFSET_PERIOD -> period;
+            case OFFSET_DETERMINISTIC -> deterministic ? 1 : 0;
+            default -> 0;
+        };
+        value >>>= 8 * (relativeAddress & 7);
+        return size >= Long.BYTES ? value : value & ((1L << 8 * size) - 1);
     }
 }
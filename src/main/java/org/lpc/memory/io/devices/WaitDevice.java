@@ -0,0 +1,124 @@
+package org.lpc.memory.io.devices;
+
+import org.lpc.cpu.Cpu;
+import org.lpc.memory.io.IODevice;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Event line idle cores sleep on. Devices raise an event whenever something
+ * a guest may be waiting for happens (a key press, a core halting); a core
+ * that executes WFI, or writes its WAIT register, stops until the next one.
+ * .
+ * Cores latch events like WFE on ARM: a wait returns at once if an event was
+ * raised since the core last waited, so checking a condition and then
+ * waiting never misses the event that changes it. Waits may also end early,
+ * so guests re-check what they wait for after waking.
+ * .
+ * The guest only asks for the wait: Cpu.run returns WAITING_FOR_IO and the
+ * host parks its thread in Cpu.awaitEvent, so an idle VM uses no host CPU.
+ *
+ * Memory Map:
+ * +0x00 EVENTS      [RW] - Events raised since boot; writing raises one, waking every core
+ * +0x08 + 8n WAIT   [WO] - Core n waits for an event or the written number of ms (0 = no limit);
+ *                          writes by any other core, or from outside a core, are ignored
+ */
+public class WaitDevice implements IODevice {
+    public static final int OFFSET_EVENTS = 0x00;
+    public static final int OFFSET_WAIT = 0x08;
+
+    private final long baseAddress;
+    private final List<Cpu> cores;
+    // Not synchronized: virtual threads parked on a Condition release their carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition raised = lock.newCondition();
+    private volatile long events;
+
+    public WaitDevice(long baseAddress, List<Cpu> cores) {
+        this.baseAddress = baseAddress;
+        this.cores = cores;
+    }
+
+    /** Wakes every waiting core; callable from any thread */
+    public void raise() {
+        lock.lock();
+        try {
+            events++;
+            raised.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getEvents() {
+        return events;
+    }
+
+    /**
+     * Parks until the event count moves past seen, at most maxNanos.
+     * Returns the event count it woke up to.
+     */
+    public long awaitEvent(long seen, long maxNanos) throws InterruptedException {
+        lock.lock();
+        try {
+            long remaining = maxNanos;
+            while (events == seen && remaining > 0) {
+                remaining = raised.awaitNanos(remaining);
+            }
+            return events;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void saveState(DataOutput out) throws IOException {
+        out.writeLong(events);
+    }
+
+    @Override
+    public void restoreState(DataInput in) throws IOException {
+        events = in.readLong();
+    }
+
+    @Override
+    public long getBaseAdress() {
+        return baseAddress;
+    }
+
+    @Override
+    public long getSize() {
+        return OFFSET_WAIT + (long) Long.BYTES * cores.size();
+    }
+
+    @Override
+    public String getName() {
+        return "Wait";
+    }
+
+    @Override
+    public boolean handleWrite(long relativeAddress, long value) {
+        if (relativeAddress == OFFSET_EVENTS) {
+            raise();
+            return true;
+        }
+        long slot = relativeAddress - OFFSET_WAIT;
+        if (slot >= 0 && slot % Long.BYTES == 0) {
+            // The wait changes the core's run state, so only the thread running it may ask
+            Cpu core = cores.get((int) (slot / Long.BYTES));
+            if (core.isRunningOn(Thread.currentThread())) core.requestWait(value);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public long handleRead(long relativeAddress, int size) {
+        return relativeAddress == OFFSET_EVENTS ? events : 0;
+    }
+}
@@ -0,0 +1,54 @@
+package org.lpc.memory.io.replay;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Binary format shared by {@link MmioRecorder} and {@link MmioReplayer}.
+ * .
+ * Header: magic "T64M", version. Then one entry per device read or
+ * interrupt taken by the boot core, in the order they happened, all as
+ * LEB128 varints:
+ *   zigzag(instructions retired - previous entry's)
+ *   address - MMIO_BASE, or the interrupt line
+ *   size in bytes, 0 for an interrupt
+ *   zigzag(value - previous value read from the same address), reads only
+ * Delta coding keeps polling loops and clocks to a few bytes per read.
+ */
+final class MmioLog {
+    static final int MAGIC = 0x5436344D; // "T64M"
+    static final int VERSION = 2;
+    static final int INTERRUPT = 0; // the size field of an interrupt entry
+
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static void writeSignedVarLong(DataOutputStream out, long value) throws IOException {
+        writeVarLong(out, (value << 1) ^ (value >> 63));
+    }
+
+    /** @throws EOFException at the end of the log */
+    static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint in MMIO log");
+    }
+
+    static long readSignedVarLong(DataInputStream in) throws IOException {
+        long raw = readVarLong(in);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    private MmioLog() {}
+}
@@ -0,0 +1,100 @@
+package org.lpc.memory.io.replay;
+
+import org.lpc.VirtualMachine;
+import org.lpc.cpu.InterruptHook;
+import org.lpc.memory.MemoryMap;
+import org.lpc.memory.io.MmioReadHook;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Logs every MMIO device read and every interrupt the boot core takes, with
+ * the instructions retired at the time, so {@link MmioReplayer} can run the
+ * guest again with identical input. Reads still go to the real devices and
+ * interrupts still come from the real controller while recording.
+ */
+public final class MmioRecorder implements MmioReadHook, InterruptHook, Closeable {
+    private final DataOutputStream out;
+    private final Map<Long, Long> lastValues = new HashMap<>();
+    private LongSupplier instructionClock = () -> 0;
+    private long lastInstructions;
+    private long reads;
+    private long interrupts;
+
+    public MmioRecorder(OutputStream out) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        this.out.writeInt(MmioLog.MAGIC);
+        this.out.writeInt(MmioLog.VERSION);
+    }
+
+    public static MmioRecorder toFile(Path path) throws IOException {
+        return new MmioRecorder(Files.newOutputStream(path));
+    }
+
+    /** Starts recording the VM's device reads and interrupts, timestamped by its boot core */
+    public void attach(VirtualMachine vm) {
+        instructionClock = vm.getCpu()::getInstructionsRetired;
+        vm.getMemory().setMmioReadHook(this);
+        vm.getCpu().setInterruptHook(this);
+    }
+
+    // Synchronized so reads from several cores land in the log in the order they happened
+    @Override
+    public synchronized long onRead(long address, int size, LongSupplier device) {
+        long value = device.getAsLong();
+        long instructions = instructionClock.getAsLong();
+        Long last = lastValues.put(address, value);
+        try {
+            MmioLog.writeSignedVarLong(out, instructions - lastInstructions);
+            MmioLog.writeVarLong(out, address - MemoryMap.MMIO_BASE);
+            MmioLog.writeVarLong(out, size);
+            MmioLog.writeSignedVarLong(out, value - (last != null ? last : 0));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write MMIO log", e);
+        }
+        lastInstructions = instructions;
+        reads++;
+        return value;
+    }
+
+    @Override
+    public int onPoll(long instructionsRetired, int line) {
+        if (line >= 0) logInterrupt(instructionsRetired, line);
+        return line;
+    }
+
+    private synchronized void logInterrupt(long instructions, int line) {
+        try {
+            MmioLog.writeSignedVarLong(out, instructions - lastInstructions);
+            MmioLog.writeVarLong(out, line);
+            MmioLog.writeVarLong(out, MmioLog.INTERRUPT);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write MMIO log", e);
+        }
+        lastInstructions = instructions;
+        interrupts++;
+    }
+
+    public synchronized long getReads() {
+        return reads;
+    }
+
+    public synchronized long getInterrupts() {
+        return interrupts;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,145 @@
+package org.lpc.memory.io.replay;
+
+import org.lpc.VirtualMachine;
+import org.lpc.cpu.InterruptHook;
+import org.lpc.memory.MemoryMap;
+import org.lpc.memory.io.MmioReadHook;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Answers MMIO device reads from a log written by {@link MmioRecorder}
+ * instead of asking the devices, and has the boot core take the logged
+ * interrupts instead of the controller's, so a recorded run repeats
+ * exactly. Device writes still reach the devices.
+ * .
+ * Reads are matched by order, which doesn't depend on the execution mode.
+ * A read of another address or size than recorded means the guest
+ * diverged, and faults it like reading past the end of the log does.
+ * Interrupts are taken at the block boundary with the recorded instruction
+ * count. Where the core checks for them depends on the execution mode, so
+ * a log holding interrupts replays in the mode it was recorded in; passing
+ * a recorded interrupt without a check also faults as a divergence.
+ */
+public final class MmioReplayer implements MmioReadHook, InterruptHook, Closeable {
+    private final DataInputStream in;
+    private final Map<Long, Long> lastValues = new HashMap<>();
+    private LongSupplier instructionClock = () -> 0;
+    // The next entry, read ahead so interrupts can be checked for without consuming a read
+    private boolean entryRead;
+    private boolean ended;
+    private long recordedInstructions;
+    private long recordedAddress; // the line for an interrupt
+    private long recordedSize;
+    private long reads;
+    private long interrupts;
+
+    public MmioReplayer(InputStream in) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+        if (this.in.readInt() != MmioLog.MAGIC) throw new IOException("Not an MMIO log");
+        int version = this.in.readInt();
+        if (version != MmioLog.VERSION) throw new IOException("Unsupported MMIO log version: " + version);
+    }
+
+    public static MmioReplayer fromFile(Path path) throws IOException {
+        return new MmioReplayer(Files.newInputStream(path));
+    }
+
+    /** Starts feeding the VM's device reads and interrupts from the log */
+    public void attach(VirtualMachine vm) {
+        instructionClock = vm.getCpu()::getInstructionsRetired;
+        vm.getMemory().setMmioReadHook(this);
+        vm.getCpu().setInterruptHook(this);
+    }
+
+    @Override
+    public synchronized long onRead(long address, int size, LongSupplier device) {
+        if (!nextEntry()) {
+            throw new IllegalStateException(String.format(
+                    "MMIO log ended after %d reads, at instruction %d", reads, instructionClock.getAsLong()));
+        }
+        if (recordedSize == MmioLog.INTERRUPT) {
+            throw new IllegalStateException(String.format(
+                    "MMIO replay diverged at instruction %d: read %d bytes at 0x%X, recorded interrupt %d "
+                            + "(instruction %d)", instructionClock.getAsLong(), size, address,
+                    recordedAddress, recordedInstructions));
+        }
+        if (recordedAddress != address || recordedSize != size) {
+            throw new IllegalStateException(String.format(
+                    "MMIO replay diverged at instruction %d: read %d bytes at 0x%X, recorded %d bytes at 0x%X "
+                            + "(instruction %d)", instructionClock.getAsLong(), size, address,
+                    recordedSize, recordedAddress, recordedInstructions));
+        }
+        long value;
+        try {
+            value = lastValues.getOrDefault(address, 0L) + MmioLog.readSignedVarLong(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read MMIO log", e);
+        }
+        entryRead = false;
+        lastValues.put(address, value);
+        reads++;
+        return value;
+    }
+
+    // The controller's line is ignored: only the log decides
+    @Override
+    public synchronized int onPoll(long instructionsRetired, int line) {
+        if (!nextEntry() || recordedSize != MmioLog.INTERRUPT || recordedInstructions > instructionsRetired) {
+            return -1;
+        }
+        if (recordedInstructions < instructionsRetired) {
+            throw new IllegalStateException(String.format(
+                    "MMIO replay diverged at instruction %d: recorded interrupt %d at instruction %d "
+                            + "was passed; replay in the execution mode it was recorded in",
+                    instructionsRetired, recordedAddress, recordedInstructions));
+        }
+        entryRead = false;
+        interrupts++;
+        return (int) recordedAddress;
+    }
+
+    // Reads the next entry's header unless already read; false at the end of the log
+    private boolean nextEntry() {
+        if (entryRead) return true;
+        if (ended) return false;
+        try {
+            long delta = MmioLog.readSignedVarLong(in);
+            recordedAddress = MmioLog.readVarLong(in);
+            recordedSize = MmioLog.readVarLong(in);
+            recordedInstructions += delta;
+        } catch (EOFException e) {
+            ended = true;
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read MMIO log", e);
+        }
+        if (recordedSize != MmioLog.INTERRUPT) recordedAddress += MemoryMap.MMIO_BASE;
+        entryRead = true;
+        return true;
+    }
+
+    public synchronized long getReads() {
+        return reads;
+    }
+
+    public synchronized long getInterrupts() {
+        return interrupts;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,170 @@
+package org.lpc.snapshot;
+
+import org.lpc.VirtualMachine;
+import org.lpc.memory.Memory;
+import org.lpc.memory.MemoryMap;
+import org.lpc.memory.io.IODevice;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Complete state of a VirtualMachine: the boot core's registers, PC and run
+ * flags, the state of every MMIO device, and memory.
+ * .
+ * Only pages the guest has written and that aren't all zero are stored, so
+ * a booted shell takes a few hundred KB instead of the full address space.
+ * ROM isn't stored either, every VM builds the same one. The whole snapshot
+ * is kept gzip compressed, in memory and on disk alike; restoring it into a
+ * fresh VM skips compile, assemble, load and boot.
+ * .
+ * Capture and restore only while the VM isn't running, e.g. between
+ * Cpu.run slices or while paused. Secondary cores must be stopped, only
+ * core 0 is part of the snapshot.
+ */
+public final class VmSnapshot {
+    private static final int MAGIC = 0x54363453; // "T64S"
+    private static final int VERSION = 5; // 2: CPU control and status registers, 3: timer clock and alarm,
+                                           // 4: performance counters, 5: paging registers
+    private static final int PAGE_SIZE = (int) MemoryMap.PAGE_SIZE;
+
+    private final byte[] compressed;
+
+    private VmSnapshot(byte[] compressed) {
+        this.compressed = compressed;
+    }
+
+    public static VmSnapshot capture(VirtualMachine vm) {
+        if (vm.getSmpDevice().getRunningMask() != 1) {
+            throw new IllegalStateException("Cannot snapshot while secondary cores are running");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new FastGzipOutputStream(bytes))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            vm.getCpu().saveState(out);
+            writeDevices(vm.getIoDeviceManager().getDevices(), out);
+            writePages(vm.getMemory(), out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // in-memory streams don't fail
+        }
+        return new VmSnapshot(bytes.toByteArray());
+    }
+
+    /**
+     * Replaces the VM's state with the snapshot. Pages the VM has written
+     * that the snapshot doesn't hold are zeroed.
+     */
+    public void restoreInto(VirtualMachine vm) {
+        ByteArrayInputStream bytes = new ByteArrayInputStream(compressed);
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(bytes, 1 << 16))) {
+            if (in.readInt() != MAGIC) throw new IllegalArgumentException("Not a VM snapshot");
+            int version = in.readInt();
+            if (version != VERSION) throw new IllegalArgumentException("Unsupported snapshot version: " + version);
+            vm.getCpu().restoreState(in);
+            readDevices(vm.getIoDeviceManager().getDevices(), in);
+            readPages(vm.getMemory(), in);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Corrupt VM snapshot", e);
+        }
+    }
+
+    public void save(Path path) throws IOException {
+        Files.write(path, compressed);
+    }
+
+    public static VmSnapshot load(Path path) throws IOException {
+        return new VmSnapshot(Files.readAllBytes(path));
+    }
+
+    /** Compressed size, as stored on disk */
+    public int sizeBytes() {
+        return compressed.length;
+    }
+
+    /*—— Devices —————————*/
+    // Each device's state is length-prefixed and matched by name, so it's skipped for a device the VM lacks
+
+    private static void writeDevices(List<IODevice> devices, DataOutputStream out) throws IOException {
+        out.writeInt(devices.size());
+        for (IODevice device : devices) {
+            ByteArrayOutputStream state = new ByteArrayOutputStream();
+            device.saveState(new DataOutputStream(state));
+            out.writeUTF(device.getName());
+            out.writeInt(state.size());
+            state.writeTo(out);
+        }
+    }
+
+    private static void readDevices(List<IODevice> devices, DataInputStream in) throws IOException {
+        Map<String, IODevice> byName = new HashMap<>();
+        devices.forEach(device -> byName.put(device.getName(), device));
+        for (int i = in.readInt(); i > 0; i--) {
+            String name = in.readUTF();
+            byte[] state = new byte[in.readInt()];
+            in.readFully(state);
+            IODevice device = byName.get(name);
+            if (device != null) {
+                device.restoreState(new DataInputStream(new ByteArrayInputStream(state)));
+            }
+        }
+    }
+
+    /*—— Memory —————————*/
+
+    private static void writePages(Memory memory, DataOutputStream out) throws IOException {
+        byte[] page = new byte[PAGE_SIZE];
+        for (int index = MemoryMap.pageOf(MemoryMap.RAM_BASE); index < MemoryMap.PAGE_COUNT; index++) {
+            if (!memory.isPageCommitted(index) || MemoryMap.isMmioAddress(MemoryMap.pageBase(index))) continue;
+            memory.readBytes(MemoryMap.pageBase(index), page, 0, PAGE_SIZE);
+            if (isZero(page)) continue;
+            out.writeInt(index);
+            out.write(page);
+        }
+        out.writeInt(-1);
+    }
+
+    private static void readPages(Memory memory, DataInputStream in) throws IOException {
+        boolean[] restored = new boolean[MemoryMap.PAGE_COUNT];
+        byte[] page = new byte[PAGE_SIZE];
+        for (int index = in.readInt(); index != -1; index = in.readInt()) {
+            if (index < 0 || index >= MemoryMap.PAGE_COUNT) throw new IOException("Bad page index: " + index);
+            in.readFully(page);
+            memory.writeBytes(MemoryMap.pageBase(index), page, 0, PAGE_SIZE);
+            restored[index] = true;
+        }
+        for (int index = MemoryMap.pageOf(MemoryMap.RAM_BASE); index < MemoryMap.PAGE_COUNT; index++) {
+            long base = MemoryMap.pageBase(index);
+            if (!restored[index] && memory.isPageCommitted(index) && !MemoryMap.isMmioAddress(base)) {
+                memory.fill(base, PAGE_SIZE, (byte) 0);
+            }
+        }
+    }
+
+    private static boolean isZero(byte[] page) {
+        for (byte b : page) {
+            if (b != 0) return false;
+        }
+        return true;
+    }
+
+    // Fastest level: restores are dominated by inflating, which barely depends on the level
+    private static final class FastGzipOutputStream extends GZIPOutputStream {
+        FastGzipOutputStream(ByteArrayOutputStream out) throws IOException {
+            super(out, 1 << 16);
+            def.setLevel(Deflater.BEST_SPEED);
+        }
+    }
+}
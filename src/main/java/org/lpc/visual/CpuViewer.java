@@ -4,25 +4,38 @@ import javafx.animation.AnimationTimer;
 import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
+import javafx.scene.Node;
 import javafx.scene.Scene;
+import javafx.scene.control.Alert;
+import javafx.scene.control.Button;
 import javafx.scene.control.Label;
+import javafx.scene.control.TextField;
+import javafx.scene.control.ToggleButton;
 import javafx.scene.layout.*;
 import javafx.scene.paint.Color;
 import javafx.stage.Stage;
 import org.lpc.cpu.Cpu;
+import org.lpc.cpu.ExecutionControl;
 import org.lpc.cpu.RegisterInfo;
+import org.lpc.memory.WatchpointHit;
 import org.lpc.visual.style.Colors;
 import org.lpc.visual.style.Fonts;
 import org.lpc.visual.style.Styles;
 
 public class CpuViewer {
     private final Cpu cpu;
+    private final ExecutionControl executionControl;
     private final Label[] registerLabels = new Label[32];
     private final Label programCounterLabel = Styles.valueLabel();
+    private final Label retiredLabel = Styles.valueLabel();
+    private final Label stopLabel = Styles.valueLabel();
+    private final TextField breakpointInput = new TextField();
+    private ToggleButton pauseButton;
     private long lastUpdate = 0;
 
-    public CpuViewer(Cpu cpu) {
+    public CpuViewer(Cpu cpu, ExecutionControl executionControl) {
         this.cpu = cpu;
+        this.executionControl = executionControl;
     }
 
     public void start(Stage stage) {
@@ -102,6 +115,10 @@ public class CpuViewer {
         grid.setStyle(Styles.cardStyle());
 
         addControlRow(grid, "Program Counter (PC):", programCounterLabel, 0);
+        addControlRow(grid, "Instructions Retired:", retiredLabel, 1);
+        addControlRow(grid, "Execution:", createPauseButton(), 2);
+        addControlRow(grid, "Breakpoint:", createBreakpointControls(), 3);
+        addControlRow(grid, "Stopped At:", stopLabel, 4);
 
         ColumnConstraints c1 = new ColumnConstraints();
         c1.setMinWidth(180);
@@ -114,7 +131,53 @@ public class CpuViewer {
         return section;
     }
 
-    private void addControlRow(GridPane grid, String name, Label valueLabel, int row) {
+    private ToggleButton createPauseButton() {
+        ToggleButton button = Styles.toggleButton("⏸ Pause");
+        button.setOnAction(e -> {
+            if (button.isSelected()) {
+                executionControl.pause();
+            } else {
+                executionControl.resume();
+            }
+            updatePauseButton();
+        });
+        pauseButton = button;
+        return button;
+    }
+
+    // Breakpoints pause execution on their own, so the button follows the control
+    private void updatePauseButton() {
+        boolean paused = executionControl.isPaused();
+        pauseButton.setSelected(paused);
+        pauseButton.setText(paused ? "▶ Resume" : "⏸ Pause");
+    }
+
+    private HBox createBreakpointControls() {
+        breakpointInput.setPromptText("0x0000000000000000");
+        breakpointInput.setPrefWidth(170);
+        Styles.styleTextField(breakpointInput);
+
+        Button toggle = Styles.button("● Toggle");
+        toggle.setOnAction(e -> {
+            try {
+                long pc = Long.parseUnsignedLong(breakpointInput.getText().trim().replace("0x", ""), 16);
+                if (cpu.getBreakpoints().contains(pc)) {
+                    cpu.removeBreakpoint(pc);
+                } else {
+                    cpu.addBreakpoint(pc);
+                }
+            } catch (Exception ex) {
+                Alert alert = new Alert(Alert.AlertType.WARNING, "Invalid breakpoint address");
+                alert.showAndWait();
+            }
+        });
+
+        HBox controls = new HBox(10, breakpointInput, toggle);
+        controls.setAlignment(Pos.CENTER_LEFT);
+        return controls;
+    }
+
+    private void addControlRow(GridPane grid, String name, Node valueLabel, int row) {
         Label nameLabel = Styles.monoLabel(name);
         grid.add(nameLabel, 0, row);
         grid.add(valueLabel, 1, row);
@@ -129,6 +192,13 @@ public class CpuViewer {
 
             // Display PC as 64-bit hex value
             programCounterLabel.setText(String.format("0x%016X", cpu.getProgramCounter()));
+            retiredLabel.setText(String.format("%,d", cpu.getInstructionsRetired()));
+
+            boolean stopped = executionControl.isPaused() && cpu.getStoppedAt() == cpu.getProgramCounter();
+            WatchpointHit hit = cpu.getLastWatchpointHit();
+            stopLabel.setText(!stopped ? "-" : hit != null ? hit.getMessage()
+                    : String.format("Breakpoint 0x%016X", cpu.getProgramCounter()));
+            updatePauseButton();
         });
     }
 }
\ No newline at end of file
@@ -23,7 +23,7 @@ public class DebugViewManager {
         Stage stage = new Stage();
         TextModeViewer viewer = new TextModeViewer(vm.getCpu());
         viewer.start(stage);
-        vm.getKeyboardDevice().setScene(stage.getScene());
+        new KeyboardInput(vm.getKeyboardDevice()).attach(stage.getScene());
         stage.requestFocus();
     }
 
@@ -32,6 +32,6 @@ public class DebugViewManager {
     }
 
     private void createCpuViewer() {
-        new CpuViewer(vm.getCpu()).start(new Stage());
+        new CpuViewer(vm.getCpu(), vm.getExecutionControl()).start(new Stage());
     }
 }
\ No newline at end of file
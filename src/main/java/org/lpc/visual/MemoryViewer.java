@@ -20,6 +20,7 @@ import org.lpc.cpu.Cpu;
 import org.lpc.cpu.InstructionSet;
 import org.lpc.memory.Memory;
 import org.lpc.memory.MemoryMap;
+import org.lpc.memory.Watchpoint;
 import org.lpc.visual.style.Colors;
 import org.lpc.visual.style.Fonts;
 import org.lpc.visual.style.Styles;
@@ -121,6 +122,16 @@ public class MemoryViewer {
         return addr & ~(ROW_SIZE - 1); // Align to row boundary
     }
 
+    // Watches writes to the 8 bytes at addr, or stops watching them
+    private void toggleWatchpoint(long addr) {
+        Watchpoint watchpoint = Watchpoint.writes(addr, Long.BYTES);
+        if (memory.getWatchpoints().contains(watchpoint)) {
+            memory.removeWatchpoint(watchpoint);
+        } else {
+            memory.addWatchpoint(watchpoint);
+        }
+    }
+
     private String getMemoryRegionName(long address) {
         if (address >= MemoryMap.ROM_BASE && address < MemoryMap.ROM_BASE + MemoryMap.ROM_SIZE) {
             return "ROM";
@@ -232,6 +243,7 @@ public class MemoryViewer {
         private final Label addressLabel = new Label();
         private final Label memoryLabel = new Label();
         private final Label pcLabel = new Label();
+        private final Label watchLabel = new Label();
         private final HBox bar;
 
         public StatusBar() {
@@ -244,12 +256,17 @@ public class MemoryViewer {
             pcLabel.setFont(Fonts.MONO);
             pcLabel.setTextFill(Color.web(Colors.ACCENT));
 
+            watchLabel.setFont(Fonts.LABEL);
+            watchLabel.setTextFill(Color.web(Colors.MUTED));
+
             bar = new HBox(15,
                     new Label("📍 Current View:"), addressLabel,
                     createSeparator(),
                     new Label("💾 Memory:"), memoryLabel,
                     createSeparator(),
-                    pcLabel
+                    pcLabel,
+                    createSeparator(),
+                    watchLabel
             );
             bar.setAlignment(Pos.CENTER_LEFT);
             bar.setPadding(new Insets(10));
@@ -269,6 +286,7 @@ public class MemoryViewer {
                     formatBytes(totalSize), ROWS_TO_SHOW));
 
             pcLabel.setText("PC: 0x" + String.format("%016X", cpu.getProgramCounter()));
+            watchLabel.setText("👁 Watchpoints: " + memory.getWatchpoints().size());
         }
 
         private String formatBytes(long bytes) {
@@ -348,6 +366,19 @@ public class MemoryViewer {
                 }
             });
 
+            Button watch = Styles.button("👁 Watch");
+            watch.setOnAction(e -> {
+                try {
+                    String text = addressInput.getText().trim();
+                    long addr = text.isEmpty() ? currentAddress : Long.parseUnsignedLong(text.replace("0x", ""), 16);
+                    toggleWatchpoint(addr);
+                    refresh();
+                } catch (Exception ex) {
+                    Alert alert = new Alert(Alert.AlertType.WARNING, "Invalid address format");
+                    alert.showAndWait();
+                }
+            });
+
             HBox line = new HBox(12,
                     new Label("Section:"), sectionSelector,
                     createSeparator(),
@@ -355,7 +386,7 @@ public class MemoryViewer {
                     createSeparator(),
                     prev, next,
                     createSeparator(),
-                    new Label("Address:"), addressInput, go
+                    new Label("Address:"), addressInput, go, watch
             );
             line.setAlignment(Pos.CENTER_LEFT);
             line.setPadding(new Insets(10));
@@ -20,17 +20,23 @@ import org.lpc.memory.MemoryMap;
 import org.lpc.visual.style.Colors;
 import org.lpc.visual.style.Fonts;
 
+import java.util.BitSet;
+
 public class PixelModeViewer {
     // 320x240 resolution with RGBA (4 bytes per pixel)
     private static final int WIDTH = 320;
     private static final int HEIGHT = 240;
     private static final int BYTES_PER_PIXEL = 4; // RGBA
     private static final int FB_SIZE = WIDTH * HEIGHT * BYTES_PER_PIXEL; // 320*240*4 = 307,200 bytes
+    private static final int ROW_BYTES = WIDTH * BYTES_PER_PIXEL;
 
     private final Memory memory;
 
     private long lastUpdate = 0;
     private final WritableImage image = new WritableImage(WIDTH, HEIGHT);
+    // Only rows holding chunks the guest wrote are read and drawn again
+    private final byte[] bgra = new byte[FB_SIZE];
+    private boolean redrawAll = true;
 
 
     public PixelModeViewer(Cpu cpu) {
@@ -80,7 +86,7 @@ public class PixelModeViewer {
         AnimationTimer timer = new AnimationTimer() {
             @Override
             public void handle(long now) {
-                if (now - lastUpdate >= 100_000_000) { // ~100ms -> ~10 FPS
+                if (now - lastUpdate >= 33_000_000) { // ~30 FPS; idle frames cost nothing
                     renderFrameBuffer(gc);
                     lastUpdate = now;
                 }
@@ -91,21 +97,43 @@ public class PixelModeViewer {
 
     private void renderFrameBuffer(GraphicsContext gc) {
         try {
-            byte[] bgra = new byte[FB_SIZE];
-            memory.readBytes(MemoryMap.FB_BASE, bgra, 0, FB_SIZE);
+            BitSet dirty = memory.takeFramebufferDirty(FB_SIZE);
+            if (redrawAll) {
+                dirty.set(0, FB_SIZE / Memory.FB_CHUNK_SIZE);
+                redrawAll = false;
+            }
 
-            PixelWriter pw = image.getPixelWriter();
-            pw.setPixels(
-                    0, 0,
-                    WIDTH, HEIGHT,
-                    PixelFormat.getByteBgraInstance(),
-                    bgra, 0, WIDTH * BYTES_PER_PIXEL
-            );
+            // Read each run of dirty chunks in one go, noting the rows it covers
+            BitSet dirtyRows = new BitSet(HEIGHT);
+            for (int chunk = dirty.nextSetBit(0); chunk >= 0; chunk = dirty.nextSetBit(chunk)) {
+                int end = dirty.nextClearBit(chunk);
+                int offset = chunk * Memory.FB_CHUNK_SIZE;
+                int length = Math.min(end * Memory.FB_CHUNK_SIZE, FB_SIZE) - offset;
+                memory.readBytes(MemoryMap.FB_BASE + offset, bgra, offset, length);
+                dirtyRows.set(offset / ROW_BYTES, (offset + length - 1) / ROW_BYTES + 1);
+                chunk = end;
+            }
 
-            gc.clearRect(0, 0, WIDTH * 2, HEIGHT * 2);
-            gc.drawImage(image, 0, 0, WIDTH * 2, HEIGHT * 2);
+            // Then redraw each band of dirty rows
+            PixelWriter pw = image.getPixelWriter();
+            for (int row = dirtyRows.nextSetBit(0); row >= 0; row = dirtyRows.nextSetBit(row)) {
+                int end = dirtyRows.nextClearBit(row);
+                int rows = end - row;
+                pw.setPixels(
+                        0, row,
+                        WIDTH, rows,
+                        PixelFormat.getByteBgraInstance(),
+                        bgra, row * ROW_BYTES, ROW_BYTES
+                );
+
+                gc.clearRect(0, row * 2, WIDTH * 2, rows * 2);
+                gc.drawImage(image, 0, row, WIDTH, rows, 0, row * 2, WIDTH * 2, rows * 2);
+                row = end;
+            }
 
         } catch (Exception e) {
+            redrawAll = true; // the dirty chunks were taken but not drawn
+
             gc.clearRect(0, 0, WIDTH * 2, HEIGHT * 2);
             gc.setFill(Color.RED);
             gc.fillText("FrameBuffer Access Error", 10, 20);
@@ -19,6 +19,8 @@ import org.lpc.memory.MemoryMap;
 import org.lpc.visual.style.Colors;
 import org.lpc.visual.style.Fonts;
 
+import java.util.BitSet;
+
 public class TextModeViewer {
     private static final int COLS = 80;
     private static final int ROWS = 30;
@@ -26,10 +28,14 @@ public class TextModeViewer {
     private static final int CHAR_WIDTH = 10;  // larger monospace character width
     private static final int CHAR_HEIGHT = 20; // larger monospace character height
     private static final int FB_SIZE = COLS * ROWS * CELL_SIZE;
+    private static final int CELLS_PER_CHUNK = Memory.FB_CHUNK_SIZE / CELL_SIZE;
 
     private final Memory memory;
     private long lastUpdate = 0;
     private final Font textFont;
+    // Only cells in chunks the guest wrote are read and drawn again
+    private final byte[] buffer = new byte[FB_SIZE];
+    private boolean redrawAll = true;
 
     public TextModeViewer(Cpu cpu) {
         this.memory = cpu.getMemory();
@@ -82,7 +88,7 @@ public class TextModeViewer {
         AnimationTimer timer = new AnimationTimer() {
             @Override
             public void handle(long now) {
-                if (now - lastUpdate >= 100_000_000) { // ~100ms -> ~10 FPS (matches PixelModeViewer)
+                if (now - lastUpdate >= 33_000_000) { // ~30 FPS (matches PixelModeViewer); idle frames cost nothing
                     renderTextBuffer(gc);
                     lastUpdate = now;
                 }
@@ -93,47 +99,27 @@ public class TextModeViewer {
 
     private void renderTextBuffer(GraphicsContext gc) {
         try {
-            byte[] buffer = new byte[FB_SIZE];
-            memory.readBytes(MemoryMap.FB_BASE, buffer, 0, FB_SIZE);
-
-            // Clear canvas with black background
-            gc.clearRect(0, 0, COLS * CHAR_WIDTH, ROWS * CHAR_HEIGHT);
-            gc.setFill(Color.BLACK);
-            gc.fillRect(0, 0, COLS * CHAR_WIDTH, ROWS * CHAR_HEIGHT);
-
-            // Render each character cell
-            for (int row = 0; row < ROWS; row++) {
-                for (int col = 0; col < COLS; col++) {
-                    int cellIndex = (row * COLS + col) * CELL_SIZE;
-
-                    // Extract cell data
-                    int charCode = buffer[cellIndex] & 0xFF;
-                    int fgColor = buffer[cellIndex + 1] & 0xFF;
-                    int bgColor = buffer[cellIndex + 2] & 0xFF;
-                    // buffer[cellIndex + 3] is unused
-
-                    // Calculate screen position
-                    double x = col * CHAR_WIDTH;
-                    double y = row * CHAR_HEIGHT;
-
-                    // Draw background
-                    gc.setFill(getColor(bgColor));
-                    gc.fillRect(x, y, CHAR_WIDTH, CHAR_HEIGHT);
-
-                    // Draw character if it's printable
-                    if (charCode >= 32 && charCode <= 126) { // Printable ASCII range
-                        gc.setFill(getColor(fgColor));
-
-                        // Position text within cell (baseline adjustment for proper alignment)
-                        double textX = x + 2;
-                        double textY = y + CHAR_HEIGHT - 4;
+            BitSet dirty = memory.takeFramebufferDirty(FB_SIZE);
+            if (redrawAll) {
+                dirty.set(0, FB_SIZE / Memory.FB_CHUNK_SIZE);
+                redrawAll = false;
+            }
 
-                        gc.fillText(String.valueOf((char) charCode), textX, textY);
-                    }
+            // Each run of dirty chunks is read in one go, then its cells are drawn over the old ones
+            for (int chunk = dirty.nextSetBit(0); chunk >= 0; chunk = dirty.nextSetBit(chunk)) {
+                int end = dirty.nextClearBit(chunk);
+                int offset = chunk * Memory.FB_CHUNK_SIZE;
+                int length = Math.min(end * Memory.FB_CHUNK_SIZE, FB_SIZE) - offset;
+                memory.readBytes(MemoryMap.FB_BASE + offset, buffer, offset, length);
+                for (int cell = chunk * CELLS_PER_CHUNK; cell < (offset + length) / CELL_SIZE; cell++) {
+                    drawCell(gc, cell);
                 }
+                chunk = end;
             }
 
         } catch (Exception e) {
+            redrawAll = true; // the dirty chunks were taken but not drawn
+
             // Error handling - display error message
             gc.clearRect(0, 0, COLS * CHAR_WIDTH, ROWS * CHAR_HEIGHT);
             gc.setFill(Color.BLACK);
@@ -143,6 +129,35 @@ public class TextModeViewer {
         }
     }
 
+    private void drawCell(GraphicsContext gc, int cell) {
+        int cellIndex = cell * CELL_SIZE;
+
+        // Extract cell data
+        int charCode = buffer[cellIndex] & 0xFF;
+        int fgColor = buffer[cellIndex + 1] & 0xFF;
+        int bgColor = buffer[cellIndex + 2] & 0xFF;
+        // buffer[cellIndex + 3] is unused
+
+        // Calculate screen position
+        double x = (cell % COLS) * CHAR_WIDTH;
+        double y = (cell / COLS) * CHAR_HEIGHT;
+
+        // Draw background, which also covers the cell's old character
+        gc.setFill(getColor(bgColor));
+        gc.fillRect(x, y, CHAR_WIDTH, CHAR_HEIGHT);
+
+        // Draw character if it's printable
+        if (charCode >= 32 && charCode <= 126) { // Printable ASCII range
+            gc.setFill(getColor(fgColor));
+
+            // Position text within cell (baseline adjustment for proper alignment)
+            double textX = x + 2;
+            double textY = y + CHAR_HEIGHT - 4;
+
+            gc.fillText(String.valueOf((char) charCode), textX, textY);
+        }
+    }
+
     /**
      * Convert 8-bit color code to JavaFX Color using standard VGA palette
      */